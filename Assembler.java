@@ -0,0 +1,154 @@
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Translates s12 assembly (the .s12 files next to the benchmark memfiles) into a MemoryImage, so a program can be run without
+ * writing its memfile by hand. The program starts at pc 0 with an accumulator of 0.
+ *
+ * Each line holds at most one statement, and everything after '//' is a comment:
+ *
+ *              LOAD 0x21                   an instruction: a mnemonic from Opcodes (J is also accepted for JMP) and a hex
+ *              JZ   8                      address, with or without 0x. HALT does not need an address
+ *              0x1a: 1                     a data word at an address. Data is decimal (it may be negative) unless it starts with 0x
+ *              0x00  SUB 0xF7              an instruction at an address
+ *              1F STORE FF                 the same, with a bare hex address
+ *
+ * A statement without an address goes after the previous one. Blank lines between statements also take up an address (they
+ * are left as 0), which is how the hand written tests leave gaps; blank lines before the first statement and after the last are
+ * ignored, and so are lines that only hold a comment. Any problem is reported with a MemfileException that includes the line.
+ */
+
+public class Assembler {
+
+    /**
+     * @param contents the bytes of an .s12 file
+     * @param memory_bits the width of an address
+     * @return the memory described by the assembly
+     */
+    public static MemoryImage assemble(byte[] contents, int memory_bits) throws MemfileException {
+        int memory_locations = (1 << memory_bits);
+        int[] words = new int[memory_locations];
+        int[] defined_on = new int[memory_locations];           //line that set each address, 0 if none did
+
+        String[] lines = new String(contents, StandardCharsets.US_ASCII).split("\n", -1);
+        int next_address = 0;
+        int pending_blanks = 0;                                 //blank lines since the last statement
+        boolean started = false;
+
+        for (int i = 0; i < lines.length; i++) {
+            int line = i + 1;
+            String code = lines[i];
+            int comment = code.indexOf("//");
+            boolean blank = code.trim().isEmpty();
+            if (comment >= 0) {
+                code = code.substring(0, comment);
+            }
+            code = code.trim();
+
+            if (code.isEmpty()) {
+                if (blank && started) {
+                    pending_blanks++;
+                }
+                continue;
+            }
+
+            //An explicit address, either "0xNN:", or "0xNN" or a bare hex "NN" followed by the rest of the statement
+            int address = next_address + pending_blanks;
+            String[] tokens = code.split("\\s+");
+            int first = 0;
+            int colon = tokens[0].indexOf(':');
+            if (colon >= 0) {
+                address = parseHex(tokens[0].substring(0, colon), line);
+                if (colon + 1 < tokens[0].length()) {
+                    tokens[0] = tokens[0].substring(colon + 1);
+                } else {
+                    first = 1;
+                }
+            } else if ((tokens.length > 1) && (isHexLiteral(tokens[0]) || ((opcodeFor(tokens[0]) == null) && (opcodeFor(tokens[1]) != null)))) {
+                address = parseHex(tokens[0], line);
+                first = 1;
+            }
+
+            if (first >= tokens.length) {
+                throw new MemfileException(String.format("Address %s has no instruction or data. Line %d", tokens[0], line), line);
+            }
+            if ((address < 0) || (address >= memory_locations)) {
+                throw new MemfileException(String.format("Address 0x%X is outside of memory (%d locations). Line %d", address, memory_locations, line), line);
+            }
+            if (defined_on[address] != 0) {
+                throw new MemfileException(String.format("Address 0x%X was already set on line %d. Line %d", address, defined_on[address], line), line);
+            }
+
+            words[address] = (opcodeFor(tokens[first]) != null) ? instruction(tokens, first, line) : data(tokens, first, line);
+            defined_on[address] = line;
+            next_address = address + 1;
+            pending_blanks = 0;
+            started = true;
+        }
+
+        return new MemoryImage(0, 0, words);
+    }
+
+    //Encodes "MNEMONIC [address]"
+    private static int instruction(String[] tokens, int first, int line) throws MemfileException {
+        Opcodes op = opcodeFor(tokens[first]);
+
+        int operand = 0;
+        if (first + 1 < tokens.length) {
+            operand = parseHex(tokens[first + 1], line);
+        } else if (op != Opcodes.HALT) {
+            throw new MemfileException(String.format("%s needs an address. Line %d", op.name(), line), line);
+        }
+        if (first + 2 < tokens.length) {
+            throw new MemfileException(String.format("Unexpected %s after the instruction. Line %d", tokens[first + 2], line), line);
+        }
+        if (operand > 0xFF) {
+            throw new MemfileException(String.format("Address 0x%X does not fit in the 8 bits of an instruction (use LOADI or STOREI to reach higher memory). Line %d", operand, line), line);
+        }
+        return (op.getCode() << 8) | operand;
+    }
+
+    //Encodes a data word, decimal unless it starts with 0x
+    private static int data(String[] tokens, int first, int line) throws MemfileException {
+        if (first + 1 < tokens.length) {
+            throw new MemfileException(String.format("Unexpected %s after the data. Line %d", tokens[first + 1], line), line);
+        }
+        String token = tokens[first];
+        int value;
+        try {
+            value = isHexLiteral(token) ? Integer.parseInt(token.substring(2), 16) : Integer.parseInt(token);
+        } catch (NumberFormatException e) {
+            throw new MemfileException(String.format("%s is not an instruction or a number. Line %d", token, line), line);
+        }
+        if ((value < -2048) || (value > 0xFFF)) {
+            throw new MemfileException(String.format("%s does not fit in 12 bits. Line %d", token, line), line);
+        }
+        return value & 0xFFF;
+    }
+
+    private static int parseHex(String token, int line) throws MemfileException {
+        String digits = isHexLiteral(token) ? token.substring(2) : token;
+        try {
+            return Integer.parseInt(digits, 16);
+        } catch (NumberFormatException e) {
+            throw new MemfileException(String.format("%s is not a hex address. Line %d", token, line), line);
+        }
+    }
+
+    private static boolean isHexLiteral(String token) {
+        return (token.length() > 2) && (token.charAt(0) == '0') && ((token.charAt(1) == 'x') || (token.charAt(1) == 'X'));
+    }
+
+    //The opcode a mnemonic names (any case), or null if it is not a mnemonic
+    private static Opcodes opcodeFor(String token) {
+        String mnemonic = token.toUpperCase();
+        if (mnemonic.equals("J")) {
+            return Opcodes.JMP;
+        }
+        for (Opcodes op : Opcodes.values()) {
+            if (op.name().equals(mnemonic)) {
+                return op;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,168 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs many memfiles at once on a fixed size pool of worker threads, and merges their metrics into one table.
+ *
+ * Every memfile gets its own Simulator, Hardware objects and memory, so the runs share nothing and do not need to lock.
+ * A memfile that fails to load only fails its own row, it does not stop the batch.
+ *
+ *              java Simulator -batch [-threads N] Benchmarks/ Tests_Used_During_Development/Test.mem ...
+ */
+
+public class BatchRunner {
+
+    private final SimulationOptions options;
+
+    /**
+     * @param options settings used for every run. Results are never printed by the individual runs
+     */
+    public BatchRunner(SimulationOptions options) {
+        this.options = options.copy();
+        this.options.print_results = false;
+        this.options.trace_file = null;             //every run would write the same file
+    }
+
+    //Entry point for -batch on the command line
+    public static void main(SimulationOptions options) {
+        List<String> files = findMemfiles(options.inputs);
+        if (files.isEmpty()) {
+            System.out.println("No memfiles found in " + options.inputs);
+            System.exit(1);
+        }
+
+        long start = System.nanoTime();
+        List<SimulationResult> results = new BatchRunner(options).run(files);
+        long elapsed = System.nanoTime() - start;
+
+        System.out.println(formatTable(results));
+        System.out.println(String.format("%d memfile(s) on %d thread(s) in %.3f s", files.size(), threadCount(options), elapsed / 1e9));
+
+        for (SimulationResult r : results) {
+            if (!r.succeeded()) {
+                System.exit(1);
+            }
+        }
+    }
+
+    /**
+     * Run every memfile, using at most options.threads worker threads
+     * @param files memfile paths
+     * @return one result per memfile, in the same order as the paths
+     */
+    public List<SimulationResult> run(List<String> files) {
+        ExecutorService pool = Executors.newFixedThreadPool(threadCount(options));
+        try {
+            List<Future<SimulationResult>> futures = new ArrayList<>();
+            for (String file : files) {
+                futures.add(pool.submit(() -> runOne(file)));
+            }
+
+            List<SimulationResult> results = new ArrayList<>();
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (Exception e) {
+                    Throwable cause = (e.getCause() != null) ? e.getCause() : e;
+                    results.add(SimulationResult.failed(files.get(i), cause.toString()));
+                }
+            }
+            return results;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Load and simulate a single memfile. Safe to call from many threads at once
+     * @param file memfile path
+     * @return the metrics of the run, or the reason it failed
+     */
+    public SimulationResult runOne(String file) {
+        long start = System.nanoTime();
+        try {
+            MemoryImage image = ImageCache.load(file, options.memory_bits);
+            Simulator sim = new Simulator(image, options);
+            return SimulationResult.of(file, sim, System.nanoTime() - start);
+        } catch (MemfileException e) {
+            return SimulationResult.failed(file, e.getMessage());
+        }
+    }
+
+    private static int threadCount(SimulationOptions options) {
+        return (options.threads > 0) ? options.threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Expand directories into the memfiles they hold (searching sub directories too). Plain paths are kept as is
+     * @param inputs memfile paths and directories
+     * @return memfile paths, sorted within each directory so the table is always in the same order
+     */
+    public static List<String> findMemfiles(List<String> inputs) {
+        List<String> files = new ArrayList<>();
+        for (String input : inputs) {
+            File f = new File(input);
+            if (f.isDirectory()) {
+                List<String> found = new ArrayList<>();
+                collectMemfiles(f, found);
+                Collections.sort(found);
+                files.addAll(found);
+            } else {
+                files.add(input);
+            }
+        }
+        return files;
+    }
+
+    private static void collectMemfiles(File dir, List<String> found) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                collectMemfiles(child, found);
+            } else if (child.getName().endsWith(".mem")) {
+                found.add(child.getPath());
+            }
+        }
+    }
+
+    /**
+     * @param results metrics of each run
+     * @return a table with one row per run
+     */
+    public static String formatTable(List<SimulationResult> results) {
+        int width = "MEMFILE".length();
+        for (SimulationResult r : results) {
+            width = Math.max(width, r.name.length());
+        }
+
+        StringBuilder table = new StringBuilder();
+        String header = String.format("%-" + width + "s  %8s  %8s  %8s  %8s  %6s  %6s  %6s  %6s  %6s  %9s",
+                "MEMFILE", "CPI", "CLOCKS", "INSTRS", "STALLS", "LOAD", "STORE", "ALU", "BRANCH", "MISC", "HOST MS");
+        table.append(header).append("\n");
+        table.append("_".repeat(header.length())).append("\n");
+
+        for (SimulationResult r : results) {
+            if (!r.succeeded()) {
+                table.append(String.format("%-" + width + "s  FAILED: %s", r.name, r.error)).append("\n");
+                continue;
+            }
+            table.append(String.format("%-" + width + "s  %8s  %8s  %8d  %8s  %6d  %6d  %6d  %6d  %6d  %9.3f",
+                    r.name,
+                    r.functional ? "-" : String.format("%.4f", r.cpi),
+                    r.functional ? "-" : Integer.toString(r.num_clocks),
+                    r.num_instructions,
+                    r.functional ? "-" : Integer.toString(r.num_stalls),
+                    r.mix.load_ops, r.mix.store_ops, r.mix.alu_ops, r.mix.branch_ops, r.mix.misc_ops,
+                    r.host_nanos / 1e6)).append("\n");
+        }
+        return table.toString();
+    }
+}
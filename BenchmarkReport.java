@@ -0,0 +1,484 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Runs every speed_ and space_ variant of the benchmarks and writes the comparison as CSV and Markdown tables, so the tables in
+ * 'Report Tables' no longer have to be rebuilt by copying console output.
+ *
+ *              java Simulator -report DIR [-baseline F] [-cpi-threshold PCT] [-throughput-threshold PCT] [-report-repeat N] [Benchmarks/]
+ *
+ * Memfiles are found like -batch finds them (Benchmarks/ if no path is given). A memfile named speed_X.mem or space_X.mem is
+ * the speed or space variant of program X. DIR gets three files:
+ *
+ *              report.csv          one row per memfile: CPI, clocks, stalls, instruction mix, stall sources, words and host speed
+ *              speedup.csv         one row per program that has both variants: how many times fewer clocks the speed variant
+ *                                  takes, and how many words the space variant saves
+ *              report.md           both tables, and the baseline comparison if there is one
+ *
+ * The runs are done one at a time, and each memfile is run -report-repeat times (the metrics are the same every time) with the
+ * fastest run kept, so the host throughput (simulated clocks per host second) is not skewed by other runs or by the JIT.
+ *
+ * A report.csv from an earlier run can be given as the baseline. Memfiles are matched by path relative to the working directory
+ * (so Benchmarks, ./Benchmarks and /abs/path/Benchmarks name the same files). A memfile whose CPI went up by more than
+ * -cpi-threshold percent, or whose host throughput went down by more than -throughput-threshold percent, is a regression, and
+ * the program exits with 1 after writing the report (so a build script can fail on it). A memfile the baseline does not have
+ * is warned about, and a baseline that has none of the memfiles also exits with 1, since nothing was checked.
+ */
+
+public class BenchmarkReport {
+
+    public static final int DEFAULT_REPEAT = 10;
+    public static final int DEFAULT_CPI_THRESHOLD = 1;             //percent. The simulated CPI only changes if the pipeline does
+    public static final int DEFAULT_THROUGHPUT_THRESHOLD = 25;     //percent. Host time is noisy, even on the fastest of several runs
+    public static final String DEFAULT_INPUT = "Benchmarks";
+
+    private static final String[] CSV_COLUMNS = {"file", "program", "variant", "cpi", "clocks", "instructions", "stalls", "flushes",
+            "load_ops", "store_ops", "alu_ops", "branch_ops", "misc_ops", "jmp_stalls", "jn_stalls", "jz_stalls", "store_stalls",
+            "storei_stalls", "words", "host_ms", "clocks_per_sec"};
+
+    private final SimulationOptions options;
+
+    //One memfile of the report
+    public static class Row {
+        public final String file;
+        public final String program;        //file name without the variant prefix and extension
+        public final String variant;        //"speed", "space", or "" for a memfile that is neither
+        public final SimulationResult result;
+        public final int words;             //memory words the memfile sets to something other than 0
+
+        Row(String file, SimulationResult result, int words) {
+            String name = new File(file).getName().replaceFirst("\\.mem$", "");
+            if (name.startsWith("speed_") || name.startsWith("space_")) {
+                this.variant = name.substring(0, 5);
+                this.program = name.substring(6);
+            } else {
+                this.variant = "";
+                this.program = name;
+            }
+            this.file = normalizePath(file);
+            this.result = result;
+            this.words = words;
+        }
+
+        /**
+         * @return simulated clocks per second of host time on the fastest run
+         */
+        public double clocksPerSecond() {
+            return (result.host_nanos == 0) ? 0.0 : result.num_clocks / (result.host_nanos / 1e9);
+        }
+    }
+
+    //One memfile against the baseline
+    public static class Comparison {
+        public final String file;
+        public final double base_cpi;
+        public final double cpi;
+        public final double base_throughput;
+        public final double throughput;
+        public final String regression;     //what got worse, null if nothing did
+
+        Comparison(String file, double base_cpi, double cpi, double base_throughput, double throughput, String regression) {
+            this.file = file;
+            this.base_cpi = base_cpi;
+            this.cpi = cpi;
+            this.base_throughput = base_throughput;
+            this.throughput = throughput;
+            this.regression = regression;
+        }
+    }
+
+    /**
+     * @param options settings used for every run (predictor, forwarding, ...). Results are never printed by the individual runs
+     */
+    public BenchmarkReport(SimulationOptions options) {
+        this.options = options.copy();
+        this.options.print_results = false;
+        this.options.trace_file = null;
+        this.options.jmx = false;
+        this.options.functional = false;            //the report is about timing
+        this.options.checkpoint_interval = 0;
+        this.options.seek_cycles.clear();
+    }
+
+    //Entry point for -report on the command line
+    public static void main(SimulationOptions options) {
+        List<String> inputs = options.inputs.isEmpty() ? List.of(DEFAULT_INPUT) : options.inputs;
+        List<String> files = BatchRunner.findMemfiles(inputs);
+        if (files.isEmpty()) {
+            System.out.println("No memfiles found in " + inputs);
+            System.exit(1);
+        }
+
+        List<Row> rows = new BenchmarkReport(options).run(files);
+
+        List<Comparison> comparisons = null;
+        List<String> missing = null;
+        if (options.report_baseline != null) {
+            try {
+                Map<String, double[]> baseline = readBaseline(Paths.get(options.report_baseline));
+                comparisons = compare(rows, baseline, options.report_cpi_threshold, options.report_throughput_threshold);
+                missing = notInBaseline(rows, baseline);
+            } catch (IOException | IllegalArgumentException e) {
+                String why = (e instanceof NoSuchFileException) ? "no such file" : e.getMessage();
+                System.out.println("Could not read the baseline " + options.report_baseline + ": " + why);
+                System.exit(1);
+            }
+        }
+
+        Path dir = Paths.get(options.report_dir);
+        try {
+            Files.createDirectories(dir);
+            Files.write(dir.resolve("report.csv"), formatCsv(rows).getBytes(StandardCharsets.UTF_8));
+            Files.write(dir.resolve("speedup.csv"), formatSpeedupCsv(rows).getBytes(StandardCharsets.UTF_8));
+            Files.write(dir.resolve("report.md"), formatMarkdown(rows, comparisons, missing, options).getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            System.out.println("Could not write the report to " + dir + ": " + e.getMessage());
+            System.exit(1);
+        }
+
+        List<SimulationResult> results = new ArrayList<>();
+        for (Row row : rows) {
+            results.add(row.result);
+        }
+        System.out.println(BatchRunner.formatTable(results));
+        System.out.println(formatSpeedups(rows));
+        if (comparisons != null) {
+            System.out.println(formatComparisons(comparisons, missing, options));
+        }
+        System.out.println("Wrote report.csv, speedup.csv and report.md to " + dir);
+
+        boolean failed = false;
+        for (Row row : rows) {
+            failed |= !row.result.succeeded();
+        }
+        if (comparisons != null) {
+            for (Comparison c : comparisons) {
+                failed |= (c.regression != null);
+            }
+            if (comparisons.isEmpty()) {
+                System.out.println("None of the memfiles is in the baseline " + options.report_baseline + ", so nothing was checked");
+                failed = true;
+            }
+        }
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @param file a memfile path
+     * @return the path relative to the working directory if it is inside it, otherwise absolute, with . and .. removed
+     */
+    public static String normalizePath(String file) {
+        Path path = Paths.get(file).toAbsolutePath().normalize();
+        Path cwd = Paths.get("").toAbsolutePath().normalize();
+        return path.startsWith(cwd) ? cwd.relativize(path).toString() : path.toString();
+    }
+
+    /**
+     * Run every memfile, one at a time. Every memfile is run once untimed first, so the first memfile does not pay for the JIT
+     * @param files memfile paths
+     * @return one row per memfile, in the same order as the paths
+     */
+    public List<Row> run(List<String> files) {
+        for (String file : files) {
+            try {
+                new Simulator(ImageCache.load(file, options.memory_bits), options);
+            } catch (MemfileException e) {
+                //reported by the timed runs
+            }
+        }
+
+        List<Row> rows = new ArrayList<>();
+        int repeat = Math.max(1, options.report_repeat);
+        for (String file : files) {
+            MemoryImage image;
+            try {
+                image = ImageCache.load(file, options.memory_bits);
+            } catch (MemfileException e) {
+                rows.add(new Row(file, SimulationResult.failed(file, e.getMessage()), 0));
+                continue;
+            }
+
+            SimulationResult best = null;
+            for (int i = 0; i < repeat; i++) {
+                long start = System.nanoTime();
+                Simulator sim = new Simulator(image, options);
+                SimulationResult r = SimulationResult.of(file, sim, System.nanoTime() - start);
+                if ((best == null) || (r.host_nanos < best.host_nanos)) {
+                    best = r;
+                }
+            }
+            rows.add(new Row(file, best, countWords(image)));
+        }
+        return rows;
+    }
+
+    private static int countWords(MemoryImage image) {
+        int words = 0;
+        for (int w : image.words) {
+            if (w != 0) {
+                words++;
+            }
+        }
+        return words;
+    }
+
+    //Programs that have both a speed and a space variant, in the order they were first found
+    private static Map<String, Row[]> pairs(List<Row> rows) {
+        Map<String, Row[]> pairs = new LinkedHashMap<>();
+        for (Row row : rows) {
+            if (row.variant.isEmpty() || !row.result.succeeded()) {
+                continue;
+            }
+            Row[] pair = pairs.computeIfAbsent(row.program, p -> new Row[2]);
+            pair[row.variant.equals("speed") ? 0 : 1] = row;
+        }
+        pairs.values().removeIf(pair -> (pair[0] == null) || (pair[1] == null));
+        return pairs;
+    }
+
+    //How many times fewer clocks the speed variant needs
+    private static double speedup(Row[] pair) {
+        return (pair[0].result.num_clocks == 0) ? 0.0 : (double) pair[1].result.num_clocks / pair[0].result.num_clocks;
+    }
+
+    /**
+     * Compare a report against a baseline
+     * @param rows the report
+     * @param baseline file -> {cpi, clocks_per_sec} of an earlier report
+     * @param cpi_threshold percent the CPI may go up by
+     * @param throughput_threshold percent the host throughput may go down by
+     * @return one comparison per memfile found in both
+     */
+    public static List<Comparison> compare(List<Row> rows, Map<String, double[]> baseline, int cpi_threshold, int throughput_threshold) {
+        List<Comparison> comparisons = new ArrayList<>();
+        for (Row row : rows) {
+            double[] base = baseline.get(row.file);
+            if ((base == null) || !row.result.succeeded()) {
+                continue;
+            }
+            double cpi = Math.round(row.result.cpi * 1e4) / 1e4;     //the baseline only has 4 decimals
+            double throughput = row.clocksPerSecond();
+            String regression = null;
+            if (cpi > base[0] * (1 + cpi_threshold / 100.0)) {
+                regression = "CPI";
+            }
+            if (throughput < base[1] * (1 - throughput_threshold / 100.0)) {
+                regression = (regression == null) ? "throughput" : regression + " and throughput";
+            }
+            comparisons.add(new Comparison(row.file, base[0], cpi, base[1], throughput, regression));
+        }
+        return comparisons;
+    }
+
+    /**
+     * @param rows the report
+     * @param baseline file -> {cpi, clocks_per_sec} of an earlier report
+     * @return the memfiles that ran but are not in the baseline
+     */
+    public static List<String> notInBaseline(List<Row> rows, Map<String, double[]> baseline) {
+        List<String> missing = new ArrayList<>();
+        for (Row row : rows) {
+            if (row.result.succeeded() && !baseline.containsKey(row.file)) {
+                missing.add(row.file);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Read the CPI and host throughput of each memfile from a report.csv written earlier
+     * @param path the csv file
+     * @return file (see normalizePath) -> {cpi, clocks_per_sec}
+     */
+    public static Map<String, double[]> readBaseline(Path path) throws IOException {
+        List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+        if (lines.isEmpty()) {
+            throw new IllegalArgumentException("the file is empty");
+        }
+        List<String> header = List.of(lines.get(0).split(","));
+        int file = header.indexOf("file");
+        int cpi = header.indexOf("cpi");
+        int throughput = header.indexOf("clocks_per_sec");
+        if ((file < 0) || (cpi < 0) || (throughput < 0)) {
+            throw new IllegalArgumentException("the header needs file, cpi and clocks_per_sec columns");
+        }
+
+        Map<String, double[]> baseline = new HashMap<>();
+        for (int i = 1; i < lines.size(); i++) {
+            String[] fields = lines.get(i).split(",", -1);
+            if (fields.length < header.size() || fields[cpi].isEmpty()) {
+                continue;                           //a memfile that failed in the baseline
+            }
+            try {
+                baseline.put(normalizePath(fields[file]), new double[]{Double.parseDouble(fields[cpi]), Double.parseDouble(fields[throughput])});
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("line " + (i + 1) + " has a bad number");
+            }
+        }
+        return baseline;
+    }
+
+    /**
+     * @param rows the report
+     * @return one csv line per memfile. A memfile that failed only has its file, program and variant filled in
+     */
+    public static String formatCsv(List<Row> rows) {
+        StringBuilder csv = new StringBuilder(String.join(",", CSV_COLUMNS)).append("\n");
+        for (Row row : rows) {
+            SimulationResult r = row.result;
+            csv.append(row.file).append(',').append(row.program).append(',').append(row.variant);
+            if (!r.succeeded()) {
+                csv.append(",".repeat(CSV_COLUMNS.length - 3)).append("\n");
+                continue;
+            }
+            csv.append(String.format(Locale.ROOT, ",%.4f,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%.3f,%.0f",
+                    r.cpi, r.num_clocks, r.num_instructions, r.num_stalls, r.flushes,
+                    r.mix.load_ops, r.mix.store_ops, r.mix.alu_ops, r.mix.branch_ops, r.mix.misc_ops,
+                    r.jmp_stalls, r.jn_stalls, r.jz_stalls, r.store_stalls, r.storei_stalls,
+                    row.words, r.host_nanos / 1e6, row.clocksPerSecond())).append("\n");
+        }
+        return csv.toString();
+    }
+
+    /**
+     * @param rows the report
+     * @return one csv line per program with both variants
+     */
+    public static String formatSpeedupCsv(List<Row> rows) {
+        StringBuilder csv = new StringBuilder("program,speed_clocks,space_clocks,speedup,speed_cpi,space_cpi,speed_words,space_words,words_saved\n");
+        for (Map.Entry<String, Row[]> e : pairs(rows).entrySet()) {
+            Row[] pair = e.getValue();
+            csv.append(String.format(Locale.ROOT, "%s,%d,%d,%.4f,%.4f,%.4f,%d,%d,%d", e.getKey(),
+                    pair[0].result.num_clocks, pair[1].result.num_clocks, speedup(pair), pair[0].result.cpi, pair[1].result.cpi,
+                    pair[0].words, pair[1].words, pair[0].words - pair[1].words)).append("\n");
+        }
+        return csv.toString();
+    }
+
+    /**
+     * @param rows the report
+     * @param comparisons the baseline comparison, null if there was no baseline
+     * @param missing memfiles the baseline does not have, null if there was no baseline
+     * @param options the settings the report was run with
+     * @return the whole report as Markdown
+     */
+    public static String formatMarkdown(List<Row> rows, List<Comparison> comparisons, List<String> missing, SimulationOptions options) {
+        StringBuilder md = new StringBuilder("# Benchmark report\n\n");
+        md.append("Predictor: ").append((options.predictor != null) ? options.predictor : BranchPredictor.DEFAULT)
+                .append(", forwarding: ").append(options.forwarding ? "on" : "off")
+                .append(", fastest of ").append(Math.max(1, options.report_repeat)).append(" runs per memfile.\n\n");
+
+        md.append("## Variants\n\n");
+        md.append("| Program | Variant | CPI | Clocks | Instrs | Stalls | Flushes | Load | Store | ALU | Branch | Misc "
+                + "| JMP stalls | JN stalls | JZ stalls | STORE stalls | STOREI stalls | Words | Host ms | Clocks/s |\n");
+        md.append("|---|---|" + "---:|".repeat(18) + "\n");
+        for (Row row : rows) {
+            SimulationResult r = row.result;
+            if (!r.succeeded()) {
+                md.append("| ").append(row.program).append(" | ").append(row.variant).append(" | failed: ")
+                        .append(r.error.replace("|", "\\|")).append(" |").append(" |".repeat(17)).append("\n");
+                continue;
+            }
+            md.append(String.format(Locale.ROOT, "| %s | %s | %.4f | %d | %d | %d | %d | %d | %d | %d | %d | %d | %d | %d | %d | %d | %d | %d | %.3f | %.0f |",
+                    row.program, row.variant, r.cpi, r.num_clocks, r.num_instructions, r.num_stalls, r.flushes,
+                    r.mix.load_ops, r.mix.store_ops, r.mix.alu_ops, r.mix.branch_ops, r.mix.misc_ops,
+                    r.jmp_stalls, r.jn_stalls, r.jz_stalls, r.store_stalls, r.storei_stalls,
+                    row.words, r.host_nanos / 1e6, row.clocksPerSecond())).append("\n");
+        }
+
+        md.append("\n## Speed vs space\n\n");
+        md.append("Speedup is the space variant's clocks over the speed variant's clocks.\n\n");
+        md.append("| Program | Speed clocks | Space clocks | Speedup | Speed CPI | Space CPI | Speed words | Space words | Words saved |\n");
+        md.append("|---|" + "---:|".repeat(8) + "\n");
+        for (Map.Entry<String, Row[]> e : pairs(rows).entrySet()) {
+            Row[] pair = e.getValue();
+            md.append(String.format(Locale.ROOT, "| %s | %d | %d | %.2fx | %.4f | %.4f | %d | %d | %d |", e.getKey(),
+                    pair[0].result.num_clocks, pair[1].result.num_clocks, speedup(pair), pair[0].result.cpi, pair[1].result.cpi,
+                    pair[0].words, pair[1].words, pair[0].words - pair[1].words)).append("\n");
+        }
+
+        if (comparisons != null) {
+            md.append("\n## Against ").append(options.report_baseline).append("\n\n");
+            md.append(String.format("A regression is a CPI more than %d%% higher, or a throughput more than %d%% lower.\n\n",
+                    options.report_cpi_threshold, options.report_throughput_threshold));
+            md.append("| File | Baseline CPI | CPI | Change | Baseline clocks/s | Clocks/s | Change | Regression |\n");
+            md.append("|---|" + "---:|".repeat(6) + "---|\n");
+            for (Comparison c : comparisons) {
+                md.append(String.format(Locale.ROOT, "| %s | %.4f | %.4f | %+.2f%% | %.0f | %.0f | %+.1f%% | %s |", c.file,
+                        c.base_cpi, c.cpi, percent(c.cpi, c.base_cpi), c.base_throughput, c.throughput,
+                        percent(c.throughput, c.base_throughput), (c.regression != null) ? c.regression : "")).append("\n");
+            }
+            if (comparisons.isEmpty()) {
+                md.append("\n**None of the memfiles is in the baseline, so nothing was checked.**\n");
+            }
+            if (!missing.isEmpty()) {
+                md.append("\n**Not in the baseline, so not checked:** ").append(String.join(", ", missing)).append("\n");
+            }
+        }
+        return md.toString();
+    }
+
+    private static double percent(double value, double base) {
+        return (base == 0) ? 0.0 : 100.0 * (value - base) / base;
+    }
+
+    /**
+     * @param rows the report
+     * @return the speed vs space table for the console
+     */
+    public static String formatSpeedups(List<Row> rows) {
+        String tempString = "";
+        tempString += "SPEED VS SPACE";
+        tempString += "\n_________________________";
+        tempString += "\n\t" + String.format("%-12s %12s %12s %8s %10s %10s %8s", "PROGRAM", "SPEED CLKS", "SPACE CLKS", "SPEEDUP",
+                "SPEED CPI", "SPACE CPI", "SAVED");
+        for (Map.Entry<String, Row[]> e : pairs(rows).entrySet()) {
+            Row[] pair = e.getValue();
+            tempString += "\n\t" + String.format("%-12s %12d %12d %7.2fx %10.4f %10.4f %8d", e.getKey(), pair[0].result.num_clocks,
+                    pair[1].result.num_clocks, speedup(pair), pair[0].result.cpi, pair[1].result.cpi, pair[0].words - pair[1].words);
+        }
+        tempString += "\n";
+        return tempString;
+    }
+
+    /**
+     * @param comparisons the baseline comparison
+     * @param missing memfiles the baseline does not have
+     * @param options the settings the report was run with
+     * @return the baseline comparison for the console
+     */
+    public static String formatComparisons(List<Comparison> comparisons, List<String> missing, SimulationOptions options) {
+        int regressions = 0;
+        String tempString = "";
+        tempString += "AGAINST " + options.report_baseline;
+        tempString += "\n_________________________";
+        for (Comparison c : comparisons) {
+            tempString += "\n\t" + String.format("%-40s CPI %.4f -> %.4f (%+.2f%%)  CLOCKS/S %.0f -> %.0f (%+.1f%%)%s", c.file,
+                    c.base_cpi, c.cpi, percent(c.cpi, c.base_cpi), c.base_throughput, c.throughput,
+                    percent(c.throughput, c.base_throughput), (c.regression != null) ? "  REGRESSION: " + c.regression : "");
+            if (c.regression != null) {
+                regressions++;
+            }
+        }
+        for (String file : missing) {
+            tempString += "\n\t" + String.format("%-40s WARNING: not in the baseline, not checked", file);
+        }
+        tempString += "\n\n\t" + regressions + " regression(s) in " + comparisons.size() + " memfile(s) (CPI threshold "
+                + options.report_cpi_threshold + "%, throughput threshold " + options.report_throughput_threshold + "%)";
+        tempString += "\n";
+        return tempString;
+    }
+}
@@ -0,0 +1,241 @@
+import java.util.Arrays;
+
+/**
+ * Guesses, in stage 1, whether the branch being fetched will be taken, so fetch can follow it instead of waiting for the branch
+ * to resolve in stage 4_2. Hardware.branchLogic checks the guess when the branch resolves and only flushes the pipe if it was
+ * wrong. Fetch and decode are both in stage 1, so the target of a branch is always known there; only the direction is predicted.
+ *
+ * One predictor is shared by every Hardware snapshot of a run (like the store scoreboard), and also counts how often it was right.
+ * Create one by name with create():
+ *
+ *              not-taken       never taken. Every taken branch flushes, which is how the pipeline has always behaved
+ *              jmp-taken       JMP is always taken, JN and JZ are not
+ *              2bit            a table of 2 bit saturating counters, indexed by the pc of the branch
+ *              btb             a small branch target buffer. Only branches found in it (by pc) are predicted taken, using
+ *                              the 2 bit counter kept with the entry
+ */
+
+public abstract class BranchPredictor {
+
+    public static final String DEFAULT = "not-taken";
+    public static final String[] NAMES = {"not-taken", "jmp-taken", "2bit", "btb"};
+
+    private int branches = 0;               //branches that resolved
+    private int mispredicts = 0;            //branches whose direction was guessed wrong
+
+    /**
+     * @param name one of NAMES
+     * @return a new predictor with no history, or null if there is no predictor by that name
+     */
+    public static BranchPredictor create(String name) {
+        switch (name) {
+            case "not-taken":
+                return new NotTaken();
+            case "jmp-taken":
+                return new JmpTaken();
+            case "2bit":
+                return new TwoBit(256);
+            case "btb":
+                return new Btb(16);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @param pc address the branch was fetched from
+     * @param instruction the branch (JMP, JN or JZ)
+     * @return true if fetch should follow the branch target
+     */
+    public abstract boolean predict(int pc, int instruction);
+
+    //Learns from a resolved branch
+    protected abstract void train(int pc, int instruction, boolean taken);
+
+    /**
+     * Report a branch that resolved in stage 4_2. Call once per branch
+     * @param pc address of the branch
+     * @param instruction the branch
+     * @param taken true if the branch was taken
+     * @param predicted_taken the guess made when it was fetched
+     */
+    public void resolve(int pc, int instruction, boolean taken, boolean predicted_taken) {
+        branches++;
+        if (taken != predicted_taken) {
+            mispredicts++;
+        }
+        train(pc, instruction, taken);
+    }
+
+    /**
+     * Learn from a branch without counting it. Used to warm up the history while the program is run without the pipeline
+     * @param pc address of the branch
+     * @param instruction the branch
+     * @param taken true if the branch was taken
+     */
+    public void warm(int pc, int instruction, boolean taken) {
+        train(pc, instruction, taken);
+    }
+
+    /**
+     * @return a predictor with the same history and counts, that can change without changing this one
+     */
+    public abstract BranchPredictor copy();
+
+    //Copies the counts into a new copy
+    protected BranchPredictor withCounts(BranchPredictor copy) {
+        copy.branches = branches;
+        copy.mispredicts = mispredicts;
+        return copy;
+    }
+
+    /**
+     * @param other another predictor
+     * @return true if both make the same guesses from now on. The counts are not compared
+     */
+    public abstract boolean sameState(BranchPredictor other);
+
+    public abstract String getName();
+
+    public int getBranches() {
+        return branches;
+    }
+
+    public int getMispredicts() {
+        return mispredicts;
+    }
+
+    /**
+     * @return fraction of branches whose direction was guessed right, 1 if no branch resolved
+     */
+    public double getAccuracy() {
+        return (branches == 0) ? 1.0 : (1.0 - ((double) mispredicts / branches));
+    }
+
+    public static class NotTaken extends BranchPredictor {
+        public boolean predict(int pc, int instruction) {
+            return false;
+        }
+
+        protected void train(int pc, int instruction, boolean taken) {
+        }
+
+        public BranchPredictor copy() {
+            return withCounts(new NotTaken());
+        }
+
+        public boolean sameState(BranchPredictor other) {
+            return (other instanceof NotTaken);
+        }
+
+        public String getName() {
+            return "not-taken";
+        }
+    }
+
+    public static class JmpTaken extends BranchPredictor {
+        public boolean predict(int pc, int instruction) {
+            return ((instruction >> 8) == Opcodes.JMP.getCode());
+        }
+
+        protected void train(int pc, int instruction, boolean taken) {
+        }
+
+        public BranchPredictor copy() {
+            return withCounts(new JmpTaken());
+        }
+
+        public boolean sameState(BranchPredictor other) {
+            return (other instanceof JmpTaken);
+        }
+
+        public String getName() {
+            return "jmp-taken";
+        }
+    }
+
+    public static class TwoBit extends BranchPredictor {
+        private final int[] counters;       //0 and 1 predict not taken, 2 and 3 predict taken
+
+        //Counters start at 1 (weakly not taken), so a branch is predicted taken after it was taken once
+        public TwoBit(int size) {
+            counters = new int[size];
+            Arrays.fill(counters, 1);
+        }
+
+        public boolean predict(int pc, int instruction) {
+            return counters[pc & (counters.length - 1)] >= 2;
+        }
+
+        protected void train(int pc, int instruction, boolean taken) {
+            int i = pc & (counters.length - 1);
+            counters[i] = taken ? Math.min(counters[i] + 1, 3) : Math.max(counters[i] - 1, 0);
+        }
+
+        public BranchPredictor copy() {
+            TwoBit copy = new TwoBit(counters.length);
+            System.arraycopy(counters, 0, copy.counters, 0, counters.length);
+            return withCounts(copy);
+        }
+
+        public boolean sameState(BranchPredictor other) {
+            return (other instanceof TwoBit) && Arrays.equals(counters, ((TwoBit) other).counters);
+        }
+
+        public String getName() {
+            return "2bit";
+        }
+    }
+
+    public static class Btb extends BranchPredictor {
+        //Direct mapped. Each entry holds the pc of the branch (-1 if empty), its target, and a 2 bit counter
+        private final int[] tags;
+        private final int[] targets;
+        private final int[] counters;
+
+        public Btb(int size) {
+            tags = new int[size];
+            targets = new int[size];
+            counters = new int[size];
+            Arrays.fill(tags, -1);
+        }
+
+        //The target in the entry is checked against the decoded branch, so an entry for an instruction that was overwritten is ignored
+        public boolean predict(int pc, int instruction) {
+            int i = pc & (tags.length - 1);
+            return (tags[i] == pc) && (targets[i] == (instruction & 0xFF)) && (counters[i] >= 2);
+        }
+
+        //Taken branches are added (replacing whatever was there) as weakly taken. Not taken branches only train an entry they already have
+        protected void train(int pc, int instruction, boolean taken) {
+            int i = pc & (tags.length - 1);
+            if ((tags[i] == pc) && (targets[i] == (instruction & 0xFF))) {
+                counters[i] = taken ? Math.min(counters[i] + 1, 3) : Math.max(counters[i] - 1, 0);
+            } else if (taken) {
+                tags[i] = pc;
+                targets[i] = (instruction & 0xFF);
+                counters[i] = 2;
+            }
+        }
+
+        public BranchPredictor copy() {
+            Btb copy = new Btb(tags.length);
+            System.arraycopy(tags, 0, copy.tags, 0, tags.length);
+            System.arraycopy(targets, 0, copy.targets, 0, targets.length);
+            System.arraycopy(counters, 0, copy.counters, 0, counters.length);
+            return withCounts(copy);
+        }
+
+        public boolean sameState(BranchPredictor other) {
+            if (!(other instanceof Btb)) {
+                return false;
+            }
+            Btb b = (Btb) other;
+            return Arrays.equals(tags, b.tags) && Arrays.equals(targets, b.targets) && Arrays.equals(counters, b.counters);
+        }
+
+        public String getName() {
+            return "btb";
+        }
+    }
+}
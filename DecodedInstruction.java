@@ -0,0 +1,107 @@
+/**
+ * The control signals that stage 1 generates for an instruction. They only depend on the 4 bit opcode, so every possible
+ * opcode is decoded once when the class loads, and generateControlSignals looks the result up in a 16 entry table instead of
+ * switching on the opcode every clock.
+ *
+ * Because the table is indexed by the opcode of the word that was just fetched, code that modifies itself (STORE/STOREI into
+ * the program) is always decoded correctly. Nothing needs to be invalidated when memory is written.
+ */
+
+public class DecodedInstruction {
+
+    private static final DecodedInstruction[] TABLE = new DecodedInstruction[16];
+
+    static {
+        for (int code = 0; code < TABLE.length; code++) {
+            TABLE[code] = new DecodedInstruction(code);
+        }
+    }
+
+    public final int opcode_binary;
+    public final Opcodes opcode;            //null if the opcode is not recognized
+    public final int accum_mux;             //select line of mux that feeds the accumulator
+    public final int alu_op;                //select line of a mux that feeds the alu
+    public final int accum_enable;          //enables the accumulator
+    public final int address_mux;           //direct or indirect store address
+    public final int write_enable;          //enables the write block
+    public final int branch_enable;         //1 if the instruction enables branching. A 0 leaves the branch enable unchanged
+
+    //Same decoding that generateControlSignals used to do every clock
+    private DecodedInstruction(int opcodeBinary) {
+        int accum_mux = 0x00;
+        int alu_op = 0x00;
+        int accum_enable = 0x00;
+        int address_mux = 0x00;
+        int write_enable = 0x00;
+        int branch_enable = 0x00;
+
+        switch (opcodeBinary) {
+            case (0b0100):
+                //LOAD
+                accum_mux = 0x01;
+                accum_enable = 0x01;
+                break;
+            case (0b0110):
+                //LOADI
+                accum_mux = 0x02;
+                accum_enable = 0x01;
+                break;
+            case (0b0101):
+                //STORE
+                write_enable = 0x01;
+                break;
+            case (0b0111):
+                //STOREI
+                write_enable = 0x01;
+                address_mux = 0x01;
+                break;
+            case (0b1010):
+                //ADD
+                accum_enable = 0x01;
+                alu_op = 0x02;
+                break;
+            case (0b1011):
+                //SUB
+                accum_enable = 0x01;
+                alu_op = 0x03;
+                break;
+            case (0b1000):
+                //AND
+                accum_enable = 0x01;
+                break;
+            case (0b1001):
+                //OR
+                accum_enable = 0x01;
+                alu_op = 0x01;
+                break;
+            case (0b0001):
+                //JN
+            case (0b0000):
+                //JMP
+            case (0b0010):
+                //JZ
+                branch_enable = 0x01;
+                break;
+            default:
+                //HALT, and unknown opcodes, drive everything low
+                break;
+        }
+
+        this.opcode_binary = opcodeBinary;
+        this.opcode = Opcodes.fromCode(opcodeBinary);
+        this.accum_mux = accum_mux;
+        this.alu_op = alu_op;
+        this.accum_enable = accum_enable;
+        this.address_mux = address_mux;
+        this.write_enable = write_enable;
+        this.branch_enable = branch_enable;
+    }
+
+    /**
+     * @param instruction a 12 bit instruction
+     * @return the decoded control signals for its opcode. Never allocates
+     */
+    public static DecodedInstruction decode(int instruction) {
+        return TABLE[(instruction >> 8) & 0xF];
+    }
+}
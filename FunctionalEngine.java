@@ -0,0 +1,186 @@
+/**
+ * Runs a memfile at the instruction set level, without modeling the pipeline. Each step executes one whole instruction, so
+ * there are no clocks, stalls or flushes, only the architectural state: memory, pc and accumulator.
+ *
+ * Only the final memory and accumulator are guaranteed to be the same as the pipelined Hardware model produces for the same
+ * memfile. The instruction mix and trace count the instructions actually executed, one per step, not stage 5 records. Use it
+ * when only the results of a program are needed, not its timing.
+ */
+
+public class FunctionalEngine {
+
+    private final int[] memory;             //plain copy of the memory image, written in place
+    private final int address_mask;
+    private int pc;
+    private int accum;
+    private boolean halted = false;
+    private int executed = 0;               //steps run, including unknown opcodes, which the instruction mix does not count
+
+    private InstructionMix mix = new InstructionMix();
+    private TraceBuffer trace;              //every executed instruction, only kept if the caller asked for it
+    private BranchPredictor predictor;      //trained with every executed branch, only if the caller asked for it
+
+    /**
+     * @param image the memfile contents to run. The image is copied, not modified
+     * @param trace buffer that every executed instruction is added to, or null
+     */
+    public FunctionalEngine(MemoryImage image, TraceBuffer trace) {
+        this.memory = image.words.clone();
+        this.address_mask = memory.length - 1;
+        this.pc = image.init_pc;
+        this.accum = image.init_accum;
+        this.trace = trace;
+    }
+
+    /**
+     * Execute instructions until a HALT is executed
+     * @return number of instructions executed
+     */
+    public int run() {
+        return run(0);
+    }
+
+    /**
+     * Execute instructions until a HALT is executed, or until the budget is used up
+     * @param max_instructions most instructions to execute, 0 for no limit
+     * @return number of instructions executed. Check isHalted to see if the program finished
+     */
+    public int run(int max_instructions) {
+        while (!halted && ((max_instructions <= 0) || (executed < max_instructions))) {
+            step();
+        }
+        return executed;
+    }
+
+    /**
+     * Execute a single instruction. Does nothing once the program has halted
+     */
+    public void step() {
+        if (halted) {
+            return;
+        }
+
+        int instruction = memory[pc];
+        int opcode = (instruction >> 8);
+        int address = (instruction & 0xFF);
+        int next_pc = (pc + 1) & address_mask;
+
+        executed++;
+        if (trace != null) {
+            trace.add(pc, opcode);
+        }
+        mix.add(opcode);
+
+        switch (opcode) {
+            case (0b0000):
+                //JMP
+                next_pc = address;
+                warmPredictor(instruction, true);
+                break;
+            case (0b0001):
+                //JN
+                next_pc = ((accum >> 11) == 0x01) ? address : next_pc;
+                warmPredictor(instruction, (accum >> 11) == 0x01);
+                break;
+            case (0b0010):
+                //JZ
+                next_pc = (accum == 0x00) ? address : next_pc;
+                warmPredictor(instruction, accum == 0x00);
+                break;
+            case (0b0100):
+                //LOAD
+                accum = memory[address];
+                break;
+            case (0b0101):
+                //STORE
+                memory[address] = accum;
+                break;
+            case (0b0110):
+                //LOADI
+                accum = memory[memory[address] & address_mask];
+                break;
+            case (0b0111):
+                //STOREI
+                memory[memory[address] & address_mask] = accum;
+                break;
+            case (0b1000):
+                //AND
+                accum = (accum & memory[address]) & 0xFFF;
+                break;
+            case (0b1001):
+                //OR
+                accum = (accum | memory[address]) & 0xFFF;
+                break;
+            case (0b1010):
+                //ADD
+                accum = (accum + memory[address]) & 0xFFF;
+                break;
+            case (0b1011):
+                //SUB
+                accum = (accum - memory[address]) & 0xFFF;
+                break;
+            case (0b1111):
+                //HALT
+                halted = true;
+                return;
+            default:
+                //Unknown opcodes do nothing, like they do in the pipeline
+                break;
+        }
+
+        pc = next_pc;
+    }
+
+    //Trains the predictor, if there is one, with the branch at the current pc
+    private void warmPredictor(int instruction, boolean taken) {
+        if (predictor != null) {
+            predictor.warm(pc, instruction, taken);
+        }
+    }
+
+    /**
+     * Train a branch predictor with every branch executed from now on, so a pipelined run started from the state of this engine
+     * (see SampledSimulation) can start with the history it would have had. Pass null to stop
+     * @param predictor the predictor to train
+     */
+    public void setPredictor(BranchPredictor predictor) {
+        this.predictor = predictor;
+    }
+
+    public boolean isHalted() {
+        return halted;
+    }
+
+    public int getPc() {
+        return pc;
+    }
+
+    public int getAccumulator() {
+        return accum;
+    }
+
+    /**
+     * @return a copy of memory as it is now
+     */
+    public int[] getMemory() {
+        return memory.clone();
+    }
+
+    public InstructionMix getInstructionMix() {
+        return mix;
+    }
+
+    /**
+     * @return number of instructions executed so far, including ones with an unknown opcode
+     */
+    public int getNumExecuted() {
+        return executed;
+    }
+
+    /**
+     * @return the instruction trace, or null if it is not being kept
+     */
+    public TraceBuffer getInstructionTrace() {
+        return trace;
+    }
+}
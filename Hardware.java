@@ -1,6 +1,3 @@
-
-import java.util.ArrayList;
-
 /*
  * AUTHOR:      Benjamin Dustin
  * COURSE:      Computer Architecture
@@ -12,6 +9,10 @@ import java.util.ArrayList;
  *      update its state based on the previous object. All latching will happen based on the previous hardware object. But, the combinational logic
  *      might not use the previous state as it needs to settle.
  *
+ *      Cloning allocates a new object every clock. For long runs, the simulation can instead keep two Hardware objects and alternate them
+ *      as 'previous' and 'current' (double buffering). Before each clock, copyFrom brings the reused object up to date with the previous one,
+ *      which leaves it in exactly the state a clone would have been in.
+ *
  *      Since the Hardware is pipelined, a single signal may have different values in each stage. Therefore, the variables in this class use a naming 
  *      convention to distinguish which stage the signal belongs to. For example...
  * 
@@ -32,11 +33,13 @@ import java.util.ArrayList;
  */
 
 public class Hardware implements Cloneable{
-    
-    public int[] memory;                                                    //integer array that hold program and data memory
+
+    public static final int STATE_WORDS = 84;                              //number of words written by writeState
+
+    public PagedMemory memory;                                              //program and data memory, shares unchanged pages with the previous snapshot
     public int executeHalt = 0;                                             //if the program should execute a halt
     public Simulator simulation;                                            //a reference, used to tell simulation if a halt is encountered
-    public ArrayList<Stage5State> stage5States = new ArrayList<>();         //a collection of objects that summarize stage 5 after a clock
+    public MetricsAccumulator metrics;                                      //summarizes stage 5 after each clock (shared by every snapshot)
     
     public int en_1 = 0;                                                    //enables the register after stage 1                    
     public int en_2 = 0;                                                    //                 ... after stage 2      
@@ -57,6 +60,7 @@ public class Hardware implements Cloneable{
     public int write_enable_1 = 0;              //enables the write block (write block is treated as combinational, not sequential)
     public int branch_enable_1 = 0;             //enables branching, and prevents the default 0's held in registers at startup from triggering a branch
     public int raw_instruction_1 = 0;           //instruction at program counter
+    public int predict_taken_1 = 0;             //combinational flag, the predictor guessed the branch at the program counter is taken, so fetch follows it
 
     //////
     //STAGE 2 SIGNALS
@@ -69,6 +73,7 @@ public class Hardware implements Cloneable{
     public int write_enable_2 = 0;
     public int branch_enable_2 = 0;
     public int raw_instruction_2 = 0;
+    public int predict_taken_2 = 0;
     public int first_lookup_2 = 0;              //the value of memory, using the lower 8 bits of raw_instruction_2 as an address
 
     /////
@@ -82,6 +87,7 @@ public class Hardware implements Cloneable{
     public int write_enable_3 = 0;
     public int branch_enable_3 = 0;
     public int raw_instruction_3 = 0;
+    public int predict_taken_3 = 0;
     public int first_lookup_3 = 0;
     public int second_lookup_3 = 0;             //the value of memory, using the lower 8 bits of first_lookup_3 as an address
 
@@ -97,6 +103,7 @@ public class Hardware implements Cloneable{
     public int write_enable_4_1 = 0;
     public int branch_enable_4_1 = 0;
     public int raw_instruction_4_1 = 0;
+    public int predict_taken_4_1 = 0;
     public int first_lookup_4_1 = 0;
     public int second_lookup_4_1 = 0;
 
@@ -109,8 +116,10 @@ public class Hardware implements Cloneable{
     public int write_enable_4_2 = 0;
     public int branch_enable_4_2 = 0;
     public int raw_instruction_4_2 = 0;
+    public int predict_taken_4_2 = 0;
+    public int branch_resolved_4_2 = 0;         //the branch in stage 4_2 was already reported to the predictor
     public int first_lookup_4_2 = 0;
-    public int alt_pc_4_2 = 0;                  //the alternate program counter if you should branch
+    public int alt_pc_4_2 = 0;                  //the alternate program counter if you should branch (or the next pc, if a taken guess was wrong)
     public int accum_4_2 = 0;                   //the real time value of the accumulator
     public int zero_4_2 = 0;                    //combinational flag, indicates if accumulator is zero
     public int negative_4_2 = 0;                //combinational flag, indicates if accumulator is negative
@@ -135,6 +144,7 @@ public class Hardware implements Cloneable{
     public int raw_instruction_5 = 0;
     public int first_lookup_5 = 0;
     public int accum_5 = 0;
+    public int retire_5 = 0;                    //stage 5 latched an instruction this clock that was not squashed by a flush (it retires)
     public int next_store_fsm_state_5 = 0;      //combinational flag, indicates what the next state of an fsm responsible for managing stalls
 
 
@@ -149,9 +159,15 @@ public class Hardware implements Cloneable{
     /////
     ///SMART STORE SIGNALS 
     ///// 
-    public ArrayList<Integer> busy_addresses = new ArrayList<>();
-    public ArrayList<Integer> address_timers = new ArrayList<>();
     public int min_busy_cycles = 4;
+    public int max_store_counter = 2;           //last store_counter value the fsm keeps stalling on
+    public int forwarding = 0;                  //stage 2 and 3 lookups see the word stage 5 is about to write (see lookup)
+    public StoreScoreboard store_scoreboard;    //busy addresses (one per memory location), shared by every snapshot
+
+    /////
+    ///BRANCH PREDICTION
+    /////
+    public BranchPredictor predictor;           //guesses branch directions in stage 1, shared by every snapshot
     public boolean address_conflict;
 
 
@@ -167,7 +183,16 @@ public class Hardware implements Cloneable{
     public Hardware(int init_pc, int init_accum, int[] memory, Simulator simulation) {
         //Set the inital conditions. 
         this.simulation = simulation;
-        this.memory = memory;
+        this.metrics = simulation.getMetrics();
+        this.memory = new PagedMemory(memory);
+        //With forwarding, a lookup only has to wait until the store reaches stage 5 instead of until it is written, which is one clock sooner
+        if (simulation.usesForwarding()) {
+            this.forwarding = 0x01;
+            this.min_busy_cycles = 3;
+            this.max_store_counter = 1;
+        }
+        this.store_scoreboard = new StoreScoreboard(memory.length, min_busy_cycles);
+        this.predictor = simulation.newBranchPredictor();
         this.pc = init_pc;
         this.accum_4_2 = init_accum;
         this.raw_instruction_1 = memory[init_pc];
@@ -196,9 +221,13 @@ public class Hardware implements Cloneable{
             return;
         }
 
-        //flushing the pipe indicates you should branch
+        //flushing the pipe indicates you should branch (or undo a wrong guess). Otherwise fetch follows the predictor
         if ((p.pc_enable_1 == 0x01) || (flush_pipe == 0x01)) {
-            pc = (p.pc_mux_1 == 0) ? (p.pc + 1) : p.alt_pc_4_2;
+            if (p.pc_mux_1 == 1) {
+                pc = p.alt_pc_4_2;
+            } else {
+                pc = (p.predict_taken_1 == 0x01) ? (p.raw_instruction_1 & 0x0FF) : ((p.pc + 1) & (memory.size() - 1));
+            }
         }
     }
 
@@ -235,7 +264,7 @@ public class Hardware implements Cloneable{
                 en_1 = 0x00;
                 //count how many states have been stalled
                 store_counter++;
-                next_store_fsm_state_5 = (store_counter <= 2) ? StoreFsmState.STALLING.getCode() : StoreFsmState.CASCADING.getCode();
+                next_store_fsm_state_5 = (store_counter <= max_store_counter) ? StoreFsmState.STALLING.getCode() : StoreFsmState.CASCADING.getCode();
                 break;
         }
 
@@ -252,92 +281,36 @@ public class Hardware implements Cloneable{
         executeHalt = (((raw_instruction_4_2 >> 8) == 0xF) && (latched_flush_pipe_present == 0x00)) ? 0x01 : 0x00;
     }
 
-    //Generate control signals that are not related to halting
+    //Generate control signals that are not related to halting. The signals for every opcode are decoded ahead of time (see DecodedInstruction)
     public void generateControlSignals(Hardware p) {
 
-        int opcodeBinary = (raw_instruction_1 >> 8);
-
-        //Default all signals to 0, set non zeros in the switch that follows
-        accum_mux_1 = 0x00;
-        accum_enable_1 = 0x00;
-        alu_op_1 = 0x00;
-        address_mux_1 = 0x00;
-        write_enable_1 = 0x00;
-
-        //Drive signals if they are non zero, or not dont cares
-        switch (opcodeBinary) {
-            case (0b0100):
-                //LOAD
-                accum_mux_1 = 0x01;
-                accum_enable_1 = 0x01;
-                break;
-            case (0b0110):
-                //LOADI
-                accum_mux_1 = 0x02;
-                accum_enable_1 = 0x01;
-                break;
-            case (0b0101):
-                //STORE
-                write_enable_1 = 0x01;
-                break;
-            case (0b0111):
-                //STOREI
-                write_enable_1 = 0x01;
-                address_mux_1 = 0x01;
-                break;
-            case (0b1010):
-                //ADD
-                accum_enable_1 = 0x01;
-                alu_op_1 = 0x02;
-                break;
-            case (0b1011):
-                //SUB
-                accum_enable_1 = 0x01;
-                alu_op_1 = 0x03;
-                break;
-            case (0b1000):
-                //AND
-                accum_enable_1 = 0x01;
-                break;
-            case (0b1001):
-                //OR
-                accum_enable_1 = 0x01;
-                alu_op_1 = 0x01;
-                break;
-            case (0b0001):
-                //JN
-                branch_enable_1 = 0x01;
-                break;
-            case (0b0000):
-                //JMP
-                branch_enable_1 = 0x01;
-                break;
-            case (0b0010):
-                //JZ
-                branch_enable_1 = 0x01;
-                break;
-            case (0b1111):
-                //HALT
-                // accum_mux_1 = 0x00;
-                // accum_enable_1 = 0x00;
-                // alu_op_1 = 0x00;
-                // address_mux_1 = 0x00;
-                // write_enable_1 = 0x00;
-                break;
-            
+        DecodedInstruction decoded = DecodedInstruction.decode(raw_instruction_1);
 
-            default:
-                System.out.println("FUCK. Tried to generate control signals, but recieved unknown opcode 0b" + Integer.toString(opcodeBinary, 2));
-                break;
+        accum_mux_1 = decoded.accum_mux;
+        accum_enable_1 = decoded.accum_enable;
+        alu_op_1 = decoded.alu_op;
+        address_mux_1 = decoded.address_mux;
+        write_enable_1 = decoded.write_enable;
+
+        //Branch enable is only ever driven high, the default 0's in the registers are what it guards against
+        if (decoded.branch_enable == 0x01) {
+            branch_enable_1 = 0x01;
         }
+
+        //Guess the direction of a branch now, so the next fetch can follow it
+        predict_taken_1 = ((decoded.branch_enable == 0x01) && predictor.predict(pc, raw_instruction_1)) ? 0x01 : 0x00;
+
+        //An unknown opcode decodes to all 0 signals. It is not an error yet: the fetch may be down the wrong path or past a HALT,
+        //into data. It is only an error if it retires (see latchStage5)
     }
 
     //Call this method to update 'clock' or 'update' this Hardware snapshot. You must pass a reference to the previous Hardware snapshot
     //as the argument p
     public void clock(Hardware p) {
 
-        //Dont clock if you need to halt
+        //Dont clock if you need to halt. A store that reached stage 5 right before the halt still needs to finish its write
         if (executeHalt == 0x01) {
+            updateMemory(p);
             simulation.endSimulation();
             return;
         }
@@ -360,6 +333,90 @@ public class Hardware implements Cloneable{
 
     }
 
+    //Same as clock, but times each phase for the profiler. Kept apart from clock so unprofiled runs pay nothing for it
+    public void clockProfiled(Hardware p, PhaseProfiler profiler) {
+
+        if (executeHalt == 0x01) {
+            updateMemory(p);
+            simulation.endSimulation();
+            return;
+        }
+
+        long t0 = System.nanoTime();
+        updateMemory(p);
+        long t1 = System.nanoTime();
+        updatePc(p); 
+        long t2 = System.nanoTime();
+        latch(p);
+        long t3 = System.nanoTime();
+        updateAccum(p);
+        long t4 = System.nanoTime();
+        combinationalLogic(p);
+        long t5 = System.nanoTime();
+        branchLogic();
+        long t6 = System.nanoTime();
+        haltLogic();
+        long t7 = System.nanoTime();
+        generateControlSignals(p);
+        long t8 = System.nanoTime();
+        generatStoreControlSignals(p);
+        long t9 = System.nanoTime();
+        saveStage5State();
+        long t10 = System.nanoTime();
+
+        profiler.add(0, t1 - t0);
+        profiler.add(1, t2 - t1);
+        profiler.add(2, t3 - t2);
+        profiler.add(3, t4 - t3);
+        profiler.add(4, t5 - t4);
+        profiler.add(5, t6 - t5);
+        profiler.add(6, t7 - t6);
+        profiler.add(7, t8 - t7);
+        profiler.add(8, t9 - t8);
+        profiler.add(9, t10 - t9);
+    }
+
+    //Clocks this snapshot without a previous snapshot, i.e. this object is its own 'p'. Every phase that reads the previous state runs before
+    //the phase that overwrites it: the memory write and stage 5 latch before the accumulator, the accumulator before stage 4_1 is replaced,
+    //and the pc after stage 2 has latched it. The result is the same state clock would produce on a clone, without the copy.
+    public void stepInPlace() {
+
+        if (executeHalt == 0x01) {
+            updateMemory(this);
+            simulation.endSimulation();
+            return;
+        }
+
+        updateMemory(this);
+        latchStage5(this);
+        updateAccum(this);
+        latchStages2To4(this);
+        updatePc(this);
+        combinationalLogic(this);
+        branchLogic();
+        haltLogic();
+        generateControlSignals(this);
+        generatStoreControlSignals(this);
+        saveStage5State();
+    }
+
+    //Number of upcoming clocks that belong to a store stall or a flush refill. In those windows the front of the pipe is frozen or refilling
+    //and stage 5 repeats the same instruction, so the simulation can step through them in place (see Simulator.fastForwardWindow)
+    public int windowClocks() {
+        int stall = (next_store_fsm_state_5 == StoreFsmState.STALLING.getCode()) ? (max_store_counter + 1 - store_counter) : 0;
+        int refill = 0;
+        if (flush_pipe == 0x01) {
+            refill = 4;
+        } else if (flush_pipe_latch_1 == 0x01) {
+            refill = 3;
+        } else if (flush_pipe_latch_2 == 0x01) {
+            refill = 2;
+        } else if (flush_pipe_latch_3 == 0x01) {
+            refill = 1;
+        }
+        return Math.max(stall, refill);
+    }
+
     //Sets control signals that determines if you should branch
     public void branchLogic() {
         //Determine if there was recently a flush pipe
@@ -375,10 +432,20 @@ public class Hardware implements Cloneable{
         boolean jump    = ((raw_instruction_4_2 >> 8) == 0x00); 
 
         //The final decision to branch or not
-        boolean executeBranch = (jumpEnabled && (jumpN || jumpZ || jump));
+        boolean executeBranch = (jumpN || jumpZ || jump);
+        boolean predictedBranch = (predict_taken_4_2 == 0x01);
 
-        //If you branch, you need to flush the pipe
-        flush_pipe = (executeBranch) ? 0x01 : 0x00;
+        //Tell the predictor how the branch went, once per branch
+        if (jumpEnabled && ((raw_instruction_4_2 >> 8) <= Opcodes.JZ.getCode()) && (branch_resolved_4_2 == 0x00)) {
+            predictor.resolve(pc_4_2, raw_instruction_4_2, executeBranch, predictedBranch);
+            branch_resolved_4_2 = 0x01;
+        }
+
+        //Fetch already followed the guess. If it was wrong, you need to flush the pipe. A wrong taken guess restarts after the branch
+        flush_pipe = (jumpEnabled && (executeBranch != predictedBranch)) ? 0x01 : 0x00;
+        if ((flush_pipe == 0x01) && !executeBranch) {
+            alt_pc_4_2 = ((pc_4_2 + 1) & (memory.size() - 1));
+        }
 
         //If you branch, you need the mux feeding program counter to provide that alt address, not the pc + 1
         pc_mux_1 = (flush_pipe == 0x01) ? 0x01 : 0x00;
@@ -392,37 +459,53 @@ public class Hardware implements Cloneable{
         if (executeHalt == 0x01) {
             return;
         }
-        
-        //Update Signals Latched into Stage 2
-        if (p.en_1 == 0x01) {
-            raw_instruction_2 = p.raw_instruction_1;
-            pc_2 = p.pc;
-            
-            accum_mux_2 = p.accum_mux_1;
-            alu_op_2 = p.alu_op_1;
-            accum_enable_2 = p.accum_enable_1;
-            address_mux_2 = p.address_mux_1;
-            write_enable_2 = p.write_enable_1;
-            branch_enable_2 = p.branch_enable_1;
+
+        latchStage5(p);
+        latchStages2To4(p);
+    }
+
+    //Latches stage 5 from stage 4_2. Split out of latch so stepInPlace can run it before the accumulator is updated
+    private void latchStage5(Hardware p) {
+        //Instructions that reach stage 4_2 while a flush is latched were fetched down the wrong path. Branch and halt logic already
+        //ignore them, and they do not retire either
+        retire_5 = ((p.en_4_2 == 0x01) && (p.latched_flush_pipe_present == 0x00)) ? 0x01 : 0x00;
+        if (p.en_4_2  == 0x01) {
+            raw_instruction_5 = p.raw_instruction_4_2;
+            first_lookup_5 = p.first_lookup_4_2;
+            pc_5 = p.pc_4_2;
+
+            address_mux_5 = p.address_mux_4_2;
+            write_enable_5 = p.write_enable_4_2;
+
+            accum_5 = p.accum_4_2;
         }
 
-        //Update Signals Latched into Stage 3
-        if (p.en_2  == 0x01) {
-            raw_instruction_3 = p.raw_instruction_2;
-            first_lookup_3 = p.first_lookup_2;
-            pc_3 = p.pc_2;
+        if ((retire_5 == 0x01) && !Opcodes.isValidOpcode(raw_instruction_5 >> 8)) {
+            String opcode = String.format("%4s", Integer.toBinaryString(raw_instruction_5 >> 8)).replace(' ', '0');
+            throw new IllegalStateException(String.format("Executed unknown opcode 0b%s at pc 0x%02X", opcode, pc_5));
+        }
+    }
 
-            accum_mux_3 = p.accum_mux_2;
-            alu_op_3 = p.alu_op_2;
-            accum_enable_3 = p.accum_enable_2;
-            address_mux_3 = p.address_mux_2;
-            write_enable_3 = p.write_enable_2;
-            branch_enable_3 = p.branch_enable_2;
+    //Latches stages 2 through 4_2. The stages are latched from the back of the pipe to the front, so 'p' may be this object (see stepInPlace)
+    private void latchStages2To4(Hardware p) {
+
+        //Update Signals Latched into Stage 4.2
+        if (p.en_4_1  == 0x01) {
+            raw_instruction_4_2 = p.raw_instruction_4_1;
+            predict_taken_4_2 = p.predict_taken_4_1;
+            branch_resolved_4_2 = 0x00;
+            first_lookup_4_2 = p.first_lookup_4_1;
+            pc_4_2 = p.pc_4_1;
+
+            address_mux_4_2 = p.address_mux_4_1;
+            write_enable_4_2 = p.write_enable_4_1;
+            branch_enable_4_2 = p.branch_enable_4_1;
         }
 
         //Update Signals Latched into Stage 4.1
         if (p.en_3  == 0x01) {
             raw_instruction_4_1 = p.raw_instruction_3;
+            predict_taken_4_1 = p.predict_taken_3;
             first_lookup_4_1 = p.first_lookup_3;
             second_lookup_4_1 = p.second_lookup_3;
             pc_4_1 = p.pc_3;
@@ -435,93 +518,74 @@ public class Hardware implements Cloneable{
             branch_enable_4_1 = p.branch_enable_3;
         }
 
-        //Update Signals Latched into Stage 4.2
-        if (p.en_4_1  == 0x01) {
-            raw_instruction_4_2 = p.raw_instruction_4_1;
-            first_lookup_4_2 = p.first_lookup_4_1;
-            pc_4_2 = p.pc_4_1;
+        //Update Signals Latched into Stage 3
+        if (p.en_2  == 0x01) {
+            raw_instruction_3 = p.raw_instruction_2;
+            predict_taken_3 = p.predict_taken_2;
+            first_lookup_3 = p.first_lookup_2;
+            pc_3 = p.pc_2;
 
-            address_mux_4_2 = p.address_mux_4_1;
-            write_enable_4_2 = p.write_enable_4_1;
-            branch_enable_4_2 = p.branch_enable_4_1;
+            accum_mux_3 = p.accum_mux_2;
+            alu_op_3 = p.alu_op_2;
+            accum_enable_3 = p.accum_enable_2;
+            address_mux_3 = p.address_mux_2;
+            write_enable_3 = p.write_enable_2;
+            branch_enable_3 = p.branch_enable_2;
+        }
+
+        //Update Signals Latched into Stage 2
+        if (p.en_1 == 0x01) {
+            raw_instruction_2 = p.raw_instruction_1;
+            predict_taken_2 = p.predict_taken_1;
+            pc_2 = p.pc;
+            
+            accum_mux_2 = p.accum_mux_1;
+            alu_op_2 = p.alu_op_1;
+            accum_enable_2 = p.accum_enable_1;
+            address_mux_2 = p.address_mux_1;
+            write_enable_2 = p.write_enable_1;
+            branch_enable_2 = p.branch_enable_1;
         }
 
         //The enable of the flush pipe latching should not be gated
-        flush_pipe_latch_1 = p.flush_pipe;
-        flush_pipe_latch_2 = p.flush_pipe_latch_1;
-        flush_pipe_latch_3 = p.flush_pipe_latch_2;
-        flush_pipe_latch_4 = p.flush_pipe_latch_3;
         flush_pipe_latch_5 = p.flush_pipe_latch_4;
-
-        //Update Signals Latched into Stage 5
-        if (p.en_4_2  == 0x01) {
-            raw_instruction_5 = p.raw_instruction_4_2;
-            first_lookup_5 = p.first_lookup_4_2;
-            pc_5 = p.pc_4_2;
-
-            address_mux_5 = p.address_mux_4_2;
-            write_enable_5 = p.write_enable_4_2;
-
-            accum_5 = p.accum_4_2;
-        }
+        flush_pipe_latch_4 = p.flush_pipe_latch_3;
+        flush_pipe_latch_3 = p.flush_pipe_latch_2;
+        flush_pipe_latch_2 = p.flush_pipe_latch_1;
+        flush_pipe_latch_1 = p.flush_pipe;
 
         //Cascade the register enables
-        en_2 = p.en_1;
-        en_3 = p.en_2;
-        en_4_1 = p.en_3;
         en_4_2 = p.en_4_1;
+        en_4_1 = p.en_3;
+        en_3 = p.en_2;
+        en_2 = p.en_1;
     }
 
     //Primarily updates data signals that are generated by a state, instead of latched
     public void combinationalLogic(Hardware p) {
-        raw_instruction_1 = memory[pc];
-        first_lookup_2 = memory[raw_instruction_2 & 0x0FF];
-        second_lookup_3 = memory[first_lookup_3 & 0x0FF];
+        raw_instruction_1 = lookup(pc);
+        first_lookup_2 = lookup(raw_instruction_2 & 0x0FF);
+        second_lookup_3 = lookup(getIndirectAddress(first_lookup_3));
         zero_4_2 = (accum_4_2 == 0x00) ? 0x01 : 0x00;
         negative_4_2 = ((accum_4_2 >> 11) == 0x01) ? 0x01 : 0x00;
         alt_pc_4_2 = (raw_instruction_4_2 & 0x0FF);
 
         //SMART STORE
 
-        //Increase the timers for all the busy addresses by 1.
-        for (int i = 0; i < address_timers.size(); i++) {
-            Integer oldValue = address_timers.remove(i);
-            address_timers.add(i, oldValue + 1);
-        }
-        
-
-        int last_index = address_timers.size();
-        //Make sure to remove an adress from busy addresses if its timer has expired.
-        for (int i = 0; i < last_index; i++) {
-            Integer val = address_timers.get(i);
-            if (val > min_busy_cycles) {
-                address_timers.remove(i);
-                busy_addresses.remove(i);
-                last_index--;
-                i--;
-            }
-        }
+        //A cycle has passed for every busy address. Addresses that have been busy for more than min_busy_cycles are released.
+        store_scoreboard.tick();
 
         //Determine if the current instuction is a store conflift
-        if (busy_addresses.indexOf(getAddressBinary(raw_instruction_1)) != -1) {
-            address_conflict = true;
-        } else {
-            address_conflict = false;
-        }
-
+        address_conflict = store_scoreboard.isBusy(getAddressBinary(raw_instruction_1));
 
-        //If the new instruction is store or storei, save the address and append it to the list of busy addresses.
-        //Also, start a timer for it to keep track of how long ago it was.
+        //If the new instruction is store or storei, mark the address it writes as busy for the next min_busy_cycles cycles.
         if ((isSaveOp(raw_instruction_1)) && (pc_enable_1 == 0x01)) {
-            int new_instruction_opcode = getOpcodeBinary(raw_instruction_1);
             //If its a store instruction, then the busy address is the lower 8 bits.
-            //But, if its a storei instruction, the busy address is the lower 8 bits of memory at the lower 8 bits of the instruction
+            //But, if its a storei instruction, the busy address is the word in memory at the lower 8 bits of the instruction
             int first_busy_address = getAddressBinary(raw_instruction_1);
-            busy_addresses.add(first_busy_address);
-            int second_busy_address = getAddressBinary(memory[getAddressBinary(first_busy_address)]);
-            busy_addresses.add(second_busy_address);
-            address_timers.add(0);
-            address_timers.add(0);
+            store_scoreboard.markBusy(first_busy_address);
+            int second_busy_address = getIndirectAddress(lookup(first_busy_address));
+            store_scoreboard.markBusy(second_busy_address);
         }
 
     }
@@ -539,25 +603,33 @@ public class Hardware implements Cloneable{
         return (instruction & 0xFF);
     }
 
-    //Responsible for writing to memory
-    public void updateMemory(Hardware p) {
-        dereferenceMemory();
-        if (p.write_enable_5 == 0x01) {
-            int address = (p.address_mux_5 == 0) ? (p.raw_instruction_5 & 0xFF) : (p.first_lookup_5 & 0xFF);
-            memory[address] = p.accum_5;
-            // System.out.println(String.format("Wrote %d to address %d.", p.accum_5, address));
+    //LOADI and STOREI use the whole 12 bit word they look up as an address (extended addressing), so they can reach memory above
+    //the 256 locations an instruction can name. Only the bits that fit the memory are kept, which is the lower 8 with 256 locations
+    public int getIndirectAddress(int pointer) {
+        return (pointer & (memory.size() - 1));
+    }
+
+    //Reads a memory word for the fetch and the stage 2 and 3 lookups. With forwarding, a word that the store in stage 5 writes on the next clock
+    //is taken from the bypass (accum_5) instead, so the lookup does not have to wait for the write. Fetch needs it too, since a predicted
+    //jump can fetch an instruction a store is still writing
+    public int lookup(int address) {
+        if ((forwarding == 0x01) && (write_enable_5 == 0x01) && (storeAddress() == address)) {
+            return accum_5;
         }
+        return memory.read(address);
     }
 
-    //Create a copy of the previous hardwares memory
-    public void dereferenceMemory() {
-        int[] temp_memory = new int[256];
-        int i = 0;
-        for (int m : memory) {
-            temp_memory[i] = m;
-            i++;
+    //The address the store in stage 5 writes on the next clock (only meaningful when write_enable_5 is set)
+    public int storeAddress() {
+        return (address_mux_5 == 0) ? (raw_instruction_5 & 0xFF) : getIndirectAddress(first_lookup_5);
+    }
+
+    //Responsible for writing to memory. The memory is shared with the previous snapshot, so only the written page gets copied
+    public void updateMemory(Hardware p) {
+        if (p.write_enable_5 == 0x01) {
+            memory.write(p.storeAddress(), p.accum_5);
+            // System.out.println(String.format("Wrote %d to address %d.", p.accum_5, address));
         }
-        this.memory = temp_memory;
     }
 
     //Update the accumulator
@@ -592,8 +664,7 @@ public class Hardware implements Cloneable{
                     alu_result = (p.accum_4_2 - p.first_lookup_4_1) & 0xFFF;
                     break;
                 default:
-                    System.out.println("FUCK. Tried to update accum, but alu op had a value of " + p.alu_op_4_1);
-                    System.exit(0);            
+                    throw new IllegalStateException(String.format("Unknown alu op %d at pc 0x%02X", p.alu_op_4_1, p.pc_4_1));
             }
 
             //Determine what should  latch into accumulator on next clock
@@ -615,31 +686,290 @@ public class Hardware implements Cloneable{
                     accum_4_2 = p.accum_4_2;
                     break;
                 default:
-                    System.out.println("FUCK. Tried to update accum, but accum mux had a value of " + p.accum_mux_4_1);            
+                    throw new IllegalStateException(String.format("Unknown accum mux %d at pc 0x%02X", p.accum_mux_4_1, p.pc_4_1));
             }
         }
     }
 
+    //Copies the full state of 'p' into this object without allocating anything (memory pages are shared, not copied). Used by the double buffered simulation loop, which
+    //reuses two Hardware objects instead of cloning one every clock. After this call, this object is in the same state a clone of 'p' would be.
+    public void copyFrom(Hardware p) {
+        memory.shareFrom(p.memory);
+        simulation = p.simulation;
+        metrics = p.metrics;
+        store_scoreboard = p.store_scoreboard;
+        predictor = p.predictor;
+        executeHalt = p.executeHalt;
+        en_1 = p.en_1;
+        en_2 = p.en_2;
+        en_3 = p.en_3;
+        en_4_1 = p.en_4_1;
+        en_4_2 = p.en_4_2;
+
+        //Stage 1
+        pc = p.pc;
+        pc_mux_1 = p.pc_mux_1;
+        pc_enable_1 = p.pc_enable_1;
+        accum_mux_1 = p.accum_mux_1;
+        alu_op_1 = p.alu_op_1;
+        accum_enable_1 = p.accum_enable_1;
+        address_mux_1 = p.address_mux_1;
+        write_enable_1 = p.write_enable_1;
+        branch_enable_1 = p.branch_enable_1;
+        raw_instruction_1 = p.raw_instruction_1;
+        predict_taken_1 = p.predict_taken_1;
+
+        //Stage 2
+        pc_2 = p.pc_2;
+        accum_mux_2 = p.accum_mux_2;
+        alu_op_2 = p.alu_op_2;
+        accum_enable_2 = p.accum_enable_2;
+        address_mux_2 = p.address_mux_2;
+        write_enable_2 = p.write_enable_2;
+        branch_enable_2 = p.branch_enable_2;
+        raw_instruction_2 = p.raw_instruction_2;
+        predict_taken_2 = p.predict_taken_2;
+        first_lookup_2 = p.first_lookup_2;
+
+        //Stage 3
+        pc_3 = p.pc_3;
+        accum_mux_3 = p.accum_mux_3;
+        alu_op_3 = p.alu_op_3;
+        accum_enable_3 = p.accum_enable_3;
+        address_mux_3 = p.address_mux_3;
+        write_enable_3 = p.write_enable_3;
+        branch_enable_3 = p.branch_enable_3;
+        raw_instruction_3 = p.raw_instruction_3;
+        predict_taken_3 = p.predict_taken_3;
+        first_lookup_3 = p.first_lookup_3;
+        second_lookup_3 = p.second_lookup_3;
+
+        //Stage 4_1
+        pc_4_1 = p.pc_4_1;
+        accum_mux_4_1 = p.accum_mux_4_1;
+        alu_op_4_1 = p.alu_op_4_1;
+        accum_enable_4_1 = p.accum_enable_4_1;
+        address_mux_4_1 = p.address_mux_4_1;
+        write_enable_4_1 = p.write_enable_4_1;
+        branch_enable_4_1 = p.branch_enable_4_1;
+        raw_instruction_4_1 = p.raw_instruction_4_1;
+        predict_taken_4_1 = p.predict_taken_4_1;
+        first_lookup_4_1 = p.first_lookup_4_1;
+        second_lookup_4_1 = p.second_lookup_4_1;
+
+        //Stage 4_2
+        pc_4_2 = p.pc_4_2;
+        address_mux_4_2 = p.address_mux_4_2;
+        write_enable_4_2 = p.write_enable_4_2;
+        branch_enable_4_2 = p.branch_enable_4_2;
+        raw_instruction_4_2 = p.raw_instruction_4_2;
+        predict_taken_4_2 = p.predict_taken_4_2;
+        branch_resolved_4_2 = p.branch_resolved_4_2;
+        first_lookup_4_2 = p.first_lookup_4_2;
+        alt_pc_4_2 = p.alt_pc_4_2;
+        accum_4_2 = p.accum_4_2;
+        zero_4_2 = p.zero_4_2;
+        negative_4_2 = p.negative_4_2;
+
+        //Flush pipe
+        flush_pipe = p.flush_pipe;
+        flush_pipe_latch_1 = p.flush_pipe_latch_1;
+        flush_pipe_latch_2 = p.flush_pipe_latch_2;
+        flush_pipe_latch_3 = p.flush_pipe_latch_3;
+        flush_pipe_latch_4 = p.flush_pipe_latch_4;
+        flush_pipe_latch_5 = p.flush_pipe_latch_5;
+        latched_flush_pipe_present = p.latched_flush_pipe_present;
+        temp = p.temp;
+
+        //Stage 5
+        pc_5 = p.pc_5;
+        address_mux_5 = p.address_mux_5;
+        write_enable_5 = p.write_enable_5;
+        raw_instruction_5 = p.raw_instruction_5;
+        retire_5 = p.retire_5;
+        first_lookup_5 = p.first_lookup_5;
+        accum_5 = p.accum_5;
+        next_store_fsm_state_5 = p.next_store_fsm_state_5;
+
+        //Store fsm
+        store_fsm_state = p.store_fsm_state;
+        store_counter = p.store_counter;
+        store_enable_shift_register = p.store_enable_shift_register;
+
+        //Smart store
+        min_busy_cycles = p.min_busy_cycles;
+        max_store_counter = p.max_store_counter;
+        forwarding = p.forwarding;
+        address_conflict = p.address_conflict;
+    }
+
+    //Writes every signal of this snapshot (not memory, the store scoreboard or the predictor) into 'out', which needs STATE_WORDS entries. Two
+    //snapshots with the same words, memory, scoreboard and predictor history clock the same way from here on. Used by LoopDetector
+    public void writeState(int[] out) {
+        int i = 0;
+        out[i++] = executeHalt;
+        out[i++] = en_1;
+        out[i++] = en_2;
+        out[i++] = en_3;
+        out[i++] = en_4_1;
+        out[i++] = en_4_2;
+
+        //Stage 1
+        out[i++] = pc;
+        out[i++] = pc_mux_1;
+        out[i++] = pc_enable_1;
+        out[i++] = accum_mux_1;
+        out[i++] = alu_op_1;
+        out[i++] = accum_enable_1;
+        out[i++] = address_mux_1;
+        out[i++] = write_enable_1;
+        out[i++] = branch_enable_1;
+        out[i++] = raw_instruction_1;
+        out[i++] = predict_taken_1;
+
+        //Stage 2
+        out[i++] = pc_2;
+        out[i++] = accum_mux_2;
+        out[i++] = alu_op_2;
+        out[i++] = accum_enable_2;
+        out[i++] = address_mux_2;
+        out[i++] = write_enable_2;
+        out[i++] = branch_enable_2;
+        out[i++] = raw_instruction_2;
+        out[i++] = predict_taken_2;
+        out[i++] = first_lookup_2;
+
+        //Stage 3
+        out[i++] = pc_3;
+        out[i++] = accum_mux_3;
+        out[i++] = alu_op_3;
+        out[i++] = accum_enable_3;
+        out[i++] = address_mux_3;
+        out[i++] = write_enable_3;
+        out[i++] = branch_enable_3;
+        out[i++] = raw_instruction_3;
+        out[i++] = predict_taken_3;
+        out[i++] = first_lookup_3;
+        out[i++] = second_lookup_3;
+
+        //Stage 4_1
+        out[i++] = pc_4_1;
+        out[i++] = accum_mux_4_1;
+        out[i++] = alu_op_4_1;
+        out[i++] = accum_enable_4_1;
+        out[i++] = address_mux_4_1;
+        out[i++] = write_enable_4_1;
+        out[i++] = branch_enable_4_1;
+        out[i++] = raw_instruction_4_1;
+        out[i++] = predict_taken_4_1;
+        out[i++] = first_lookup_4_1;
+        out[i++] = second_lookup_4_1;
+
+        //Stage 4_2
+        out[i++] = pc_4_2;
+        out[i++] = address_mux_4_2;
+        out[i++] = write_enable_4_2;
+        out[i++] = branch_enable_4_2;
+        out[i++] = raw_instruction_4_2;
+        out[i++] = predict_taken_4_2;
+        out[i++] = branch_resolved_4_2;
+        out[i++] = first_lookup_4_2;
+        out[i++] = alt_pc_4_2;
+        out[i++] = accum_4_2;
+        out[i++] = zero_4_2;
+        out[i++] = negative_4_2;
+
+        //Flush pipe
+        out[i++] = flush_pipe;
+        out[i++] = flush_pipe_latch_1;
+        out[i++] = flush_pipe_latch_2;
+        out[i++] = flush_pipe_latch_3;
+        out[i++] = flush_pipe_latch_4;
+        out[i++] = flush_pipe_latch_5;
+        out[i++] = latched_flush_pipe_present;
+        out[i++] = temp;
+
+        //Stage 5
+        out[i++] = pc_5;
+        out[i++] = address_mux_5;
+        out[i++] = write_enable_5;
+        out[i++] = raw_instruction_5;
+        out[i++] = retire_5;
+        out[i++] = first_lookup_5;
+        out[i++] = accum_5;
+        out[i++] = next_store_fsm_state_5;
+
+        //Store fsm
+        out[i++] = store_fsm_state;
+        out[i++] = store_counter;
+        out[i++] = store_enable_shift_register;
+
+        //Smart store
+        out[i++] = min_busy_cycles;
+        out[i++] = max_store_counter;
+        out[i++] = forwarding;
+        out[i++] = address_conflict ? 1 : 0;
+    }
+
+    //Like clone, but the copy also gets its own store scoreboard, branch predictor and metrics counts, which normal snapshots share. Clocking
+    //the copy (or anything cloned from it) never changes this object. Used for checkpoints that a run can be rewound to.
+    public Hardware deepCopy() {
+        Hardware copy = clone();
+        copy.store_scoreboard = store_scoreboard.copy();
+        copy.predictor = predictor.copy();
+        copy.metrics = metrics.copyCounts();
+        return copy;
+    }
+
+    //A short description of the state of every stage, for debugging
+    public String toString() {
+        String tempString = "";
+        tempString += String.format("\n\tPC:            0x%02X", pc);
+        tempString += String.format("\n\tACCUMULATOR:   0x%03X", accum_4_2);
+        tempString += "\n\tSTAGE 1:       " + describeStage(pc, raw_instruction_1);
+        tempString += "\n\tSTAGE 2:       " + describeStage(pc_2, raw_instruction_2);
+        tempString += "\n\tSTAGE 3:       " + describeStage(pc_3, raw_instruction_3);
+        tempString += "\n\tSTAGE 4_1:     " + describeStage(pc_4_1, raw_instruction_4_1);
+        tempString += "\n\tSTAGE 4_2:     " + describeStage(pc_4_2, raw_instruction_4_2);
+        tempString += "\n\tSTAGE 5:       " + describeStage(pc_5, raw_instruction_5);
+        tempString += String.format("\n\tENABLES:       %d %d %d %d %d (pc %d)", en_1, en_2, en_3, en_4_1, en_4_2, pc_enable_1);
+        tempString += String.format("\n\tFLUSH LATCHES: %d %d %d %d %d (flush %d)", flush_pipe_latch_1, flush_pipe_latch_2, flush_pipe_latch_3, flush_pipe_latch_4, flush_pipe_latch_5, flush_pipe);
+        tempString += String.format("\n\tSTORE FSM:     state %d, next %d, counter %d, conflict %b", store_fsm_state, next_store_fsm_state_5, store_counter, address_conflict);
+        return tempString;
+    }
+
+    private String describeStage(int stage_pc, int instruction) {
+        return String.format("0x%02X %-6s 0x%03X", stage_pc, Opcodes.getDescription(instruction >> 8), instruction);
+    }
+
     @Override
     //Use this to generate a copy of a hardware object, then clock the copy
     public Hardware clone() {
         try {
             Hardware copy = (Hardware) super.clone();
-            copy.memory = memory.clone(); // deep copy of array
+            copy.memory = memory.snapshot(); // shares pages until one of the snapshots writes
             return copy;
         } catch (CloneNotSupportedException e) {
             throw new AssertionError();
         }
     }
 
-    //Saves a snapshot of stage 5 on each clock cycle, used later to generate metrics
+    //Passes a snapshot of stage 5 to the metrics on each clock cycle
     public void saveStage5State(){
         
-        stage5States.add(new Stage5State(pc_5, Opcodes.fromCode((raw_instruction_5 >> 8))));
+        metrics.record(pc_5, (raw_instruction_5 >> 8), retire_5 == 0x01);
+
+        //Pipeline events, for the live counters
+        if (flush_pipe == 0x01) {
+            metrics.countFlush();
+        }
+        if ((next_store_fsm_state_5 == StoreFsmState.STALLING.getCode()) && (store_fsm_state != StoreFsmState.STALLING.getCode())) {
+            metrics.countStoreConflict();
+        }
 
         //HALT
         if ((executeHalt == 0x01) && (raw_instruction_4_2 >> 8) == Opcodes.HALT.getCode()) {
-            stage5States.add(new Stage5State(pc_4_2, Opcodes.HALT));
+            metrics.record(pc_4_2, Opcodes.HALT.getCode(), true);
         }
     }
 }
@@ -0,0 +1,80 @@
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Loads memfiles (.mem) and s12 assembly (.s12) into MemoryImages, and keeps every image it has built. Images are kept by a
+ * SHA-256 hash of the file contents, so running the same program again (in a batch, a sweep, or a benchmark loop) only reads the
+ * file and skips both assembly and memfile parsing. An edited file has a new hash and is built again. MemoryImage words are
+ * never written by a simulation, so one cached image is safely shared by every run and every thread.
+ */
+
+public class ImageCache {
+
+    private static final ConcurrentHashMap<String, MemoryImage> images = new ConcurrentHashMap<>();
+
+    /**
+     * Load a memfile or an s12 assembly file, reusing the image of an earlier load of the same contents
+     * @param fileName path of a .mem or .s12 file
+     * @param memory_bits the width of an address
+     * @return the initial pc, accumulator and memory described by the file
+     */
+    public static MemoryImage load(String fileName, int memory_bits) throws MemfileException {
+        boolean assembly = fileName.endsWith(".s12");
+        if (!assembly && !fileName.contains(".mem")) {
+            throw new MemfileException("The memfile path did not end in '.mem' or '.s12'");
+        }
+
+        return parse(MemfileLoader.readBytes(fileName), assembly, memory_bits);
+    }
+
+    /**
+     * Same as load, for the contents of a file that was not read from disk (for example the body of a SimulationServer request)
+     * @param contents the bytes of a memfile or an s12 assembly file
+     * @param assembly true if the contents are s12 assembly, false for a memfile
+     * @param memory_bits the width of an address
+     * @return the initial pc, accumulator and memory described by the contents
+     */
+    public static MemoryImage parse(byte[] contents, boolean assembly, int memory_bits) throws MemfileException {
+        String key = (assembly ? "s12:" : "mem:") + memory_bits + ":" + sha256(contents);
+        MemoryImage image = images.get(key);
+        if (image == null) {
+            //Two threads may build the same image at once, both results are identical so either can be kept
+            image = assembly ? Assembler.assemble(contents, memory_bits) : MemfileLoader.parse(contents, memory_bits);
+            MemoryImage earlier = images.putIfAbsent(key, image);
+            if (earlier != null) {
+                image = earlier;
+            }
+        }
+        return image;
+    }
+
+    /**
+     * @return number of images kept
+     */
+    public static int size() {
+        return images.size();
+    }
+
+    /**
+     * Forget every image
+     */
+    public static void clear() {
+        images.clear();
+    }
+
+    private static String sha256(byte[] contents) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(contents);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            //Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
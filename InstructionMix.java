@@ -0,0 +1,66 @@
+/**
+ * Running totals of each type of instruction that was executed. Shared by the pipelined and the functional engines, so both
+ * report the instruction mix the same way.
+ */
+
+public class InstructionMix {
+
+    public int alu_ops = 0;                 //AND, OR, ADD, SUB
+    public int load_ops = 0;                //LOAD, LOADI
+    public int store_ops = 0;               //STORE, STOREI
+    public int branch_ops = 0;              //JUMP, JN, JZ
+    public int misc_ops = 0;                //HALT
+
+    /**
+     * Count one executed instruction
+     * @param opcode opcode binary of the instruction
+     */
+    public void add(int opcode) {
+        switch (opcode) {
+            case (0b1010):  //ADD
+            case (0b1011):  //SUB
+            case (0b1000):  //AND
+            case (0b1001):  //OR
+                alu_ops++;
+                break;
+            case (0b0100):  //LOAD
+            case (0b0110):  //LOADI
+                load_ops++;
+                break;
+            case (0b0101):  //STORE
+            case (0b0111):  //STOREI
+                store_ops++;
+                break;
+            case (0b0000):  //JMP
+            case (0b0001):  //JN
+            case (0b0010):  //JZ
+                branch_ops++;
+                break;
+            case (0b1111):  //HALT
+                misc_ops++;
+                break;
+            default:
+                System.out.println("Cannot get accurate instructoin mix because opcode is not recognized.");
+        }
+    }
+
+    /**
+     * @return total number of instructions counted
+     */
+    public int total() {
+        return alu_ops + load_ops + store_ops + branch_ops + misc_ops;
+    }
+
+    /**
+     * @return a copy that counts separately from this one
+     */
+    public InstructionMix copy() {
+        InstructionMix copy = new InstructionMix();
+        copy.alu_ops = alu_ops;
+        copy.load_ops = load_ops;
+        copy.store_ops = store_ops;
+        copy.branch_ops = branch_ops;
+        copy.misc_ops = misc_ops;
+        return copy;
+    }
+}
@@ -0,0 +1,84 @@
+import java.util.Arrays;
+
+/**
+ * Notices when a pipelined run can never halt. The Hardware model is deterministic: the next snapshot only depends on the
+ * signals of the current one, its memory, its store scoreboard and its branch predictor. So if that state ever repeats, the run is stuck in a cycle it
+ * cannot leave (a bad jump target, a loop whose exit condition never becomes true).
+ *
+ * Memory is compared by a hash that PagedMemory keeps up to date on each write, so it costs nothing to read. The detector keeps one
+ * saved state and compares each new state against it, and replaces the saved state after 1, 2, 4, 8... clocks (Brent's cycle
+ * finding). A repeat is found within about twice the clocks it takes to enter the cycle plus its period, and only O(log clocks)
+ * states are ever saved. Each clock only compares a few signals and the memory hash with the saved state. The full state
+ * (every signal, every memory word, the scoreboard and the predictor) is only compared when those match, so a hash collision can never stop a
+ * run that would have halted.
+ */
+
+public class LoopDetector {
+
+    private final int[] words = new int[Hardware.STATE_WORDS];         //signals of the snapshot being compared, reused by every comparison
+    private final int[] saved_words = new int[Hardware.STATE_WORDS];
+    private int saved_pc;
+    private int saved_accum;
+    private int saved_pc_5;
+    private int saved_memory_hash;
+    private PagedMemory saved_memory;                                   //null until the first check
+    private StoreScoreboard saved_scoreboard;
+    private BranchPredictor saved_predictor;
+    private int saved_cycle;
+    private int power = 1;                                              //clocks between the saved state and the next time it is replaced
+
+    private int loop_cycle = -1;                                        //clock the repeat was found on, -1 if none
+    private int period = 0;
+
+    /**
+     * Check the snapshot produced by a clock. Call once per clock, in order
+     * @param h the current hardware snapshot
+     * @param cycle number of clocks the snapshot is from the start of the run
+     * @return true if this state was already seen, so the run will never halt
+     */
+    public boolean check(Hardware h, int cycle) {
+        if ((saved_memory != null) && (h.pc == saved_pc) && (h.accum_4_2 == saved_accum) && (h.pc_5 == saved_pc_5)
+                && (h.memory.hash() == saved_memory_hash) && sameState(h)) {
+            loop_cycle = cycle;
+            period = cycle - saved_cycle;
+            return true;
+        }
+
+        if ((saved_memory == null) || ((cycle - saved_cycle) == power)) {
+            if (saved_memory != null) {
+                power *= 2;
+            }
+            h.writeState(saved_words);
+            saved_pc = h.pc;
+            saved_accum = h.accum_4_2;
+            saved_pc_5 = h.pc_5;
+            saved_memory_hash = h.memory.hash();
+            saved_memory = h.memory.snapshot();
+            saved_scoreboard = h.store_scoreboard.copy();
+            saved_predictor = h.predictor.copy();
+            saved_cycle = cycle;
+        }
+        return false;
+    }
+
+    //Full comparison with the saved state, only done when the cheap checks already match
+    private boolean sameState(Hardware h) {
+        h.writeState(words);
+        return Arrays.equals(words, saved_words) && h.memory.sameContents(saved_memory) && h.store_scoreboard.sameState(saved_scoreboard)
+                && h.predictor.sameState(saved_predictor);
+    }
+
+    /**
+     * @return the clock the repeated state was found on, or -1 if none was found
+     */
+    public int getLoopCycle() {
+        return loop_cycle;
+    }
+
+    /**
+     * @return number of clocks in the cycle the run is stuck in, 0 if none was found
+     */
+    public int getPeriod() {
+        return period;
+    }
+}
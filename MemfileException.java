@@ -0,0 +1,26 @@
+/**
+ * Thrown when a memfile cannot be turned into memory. The message says what was wrong and on which line of the memfile.
+ */
+
+public class MemfileException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int line;     //line of the memfile with the error, 0 if the error is not about a single line
+
+    public MemfileException(String message) {
+        this(message, 0);
+    }
+
+    public MemfileException(String message, int line) {
+        super(message);
+        this.line = line;
+    }
+
+    /**
+     * @return line of the memfile with the error, 0 if the error is not about a single line
+     */
+    public int getLine() {
+        return line;
+    }
+}
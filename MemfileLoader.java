@@ -0,0 +1,227 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Translates a memfile into a MemoryImage. The file is read as bytes through a FileChannel, and each binary field is validated
+ * and decoded in the same pass that splits the file into tokens, so no Strings, regular expressions or Integer.parseInt calls
+ * are needed per line.
+ *
+ * A memfile is a list of whitespace separated tokens:
+ *
+ *              PPPPPPPP AAAAAAAAAAAA           initial pc (8 bits, or as wide as an address) and initial accumulator (12 bits)
+ *              xx WWWWWWWWWWWW                 an address label and the 12 bit word stored there
+ *              xx WWWWWWWWWWWW                 ... one pair per memory location, in order
+ *
+ * The address labels are not used to place words (the nth pair is stored at address n), but they are reported in error messages.
+ * Any problem is reported with a MemfileException that includes the line number.
+ */
+
+public class MemfileLoader {
+
+    private final byte[] bytes;
+    private int pos = 0;            //index of the next byte to read
+    private int line = 1;           //line of the next byte to read
+
+    //The most recent token
+    private int token_start;
+    private int token_end;
+    private int token_line;
+
+    //Value and validity of the most recent token, if it was read as binary
+    private int binary_value;
+    private boolean binary_valid;
+
+    private MemfileLoader(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    /**
+     * Handles the following errors by throwing a MemfileException
+     * ->Non binary data
+     * ->Initial pc that is not 8 bits or memory_bits wide
+     * ->Non 12 bit inital accumulator
+     * ->Non 12 bit instruction
+     * ->Invalid opcode
+     * ->More words than memory locations
+     *
+     * @param fileName the path where the memfile can be found
+     * @param memory_bits the width of an address. The memfile can fill at most 2^memory_bits locations
+     * @return the initial pc, accumulator and memory described by the memfile
+     */
+    public static MemoryImage load(String fileName, int memory_bits) throws MemfileException {
+        if (!fileName.contains(".mem")) {
+            throw new MemfileException("The memfile path did not end in '.mem'");
+        }
+        return new MemfileLoader(readBytes(fileName)).parse(memory_bits);
+    }
+
+    /**
+     * Same checks as load, for memfile contents that are already in memory
+     * @param contents the bytes of a memfile
+     * @param memory_bits the width of an address
+     * @return the initial pc, accumulator and memory described by the memfile
+     */
+    public static MemoryImage parse(byte[] contents, int memory_bits) throws MemfileException {
+        return new MemfileLoader(contents).parse(memory_bits);
+    }
+
+    //Read the whole file with a single channel read
+    static byte[] readBytes(String fileName) throws MemfileException {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new MemfileException("The memfile is too large to load");
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(new byte[(int) size]);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                //keep reading until the buffer is full or the file ends
+            }
+            return buffer.array();
+        } catch (NoSuchFileException e) {
+            throw new MemfileException("File not found.");
+        } catch (IOException e) {
+            throw new MemfileException("Could not read memfile: " + e.getMessage());
+        }
+    }
+
+    private MemoryImage parse(int memory_bits) throws MemfileException {
+        int memory_locations = (1 << memory_bits);
+        int[] temp_mem = new int[memory_locations];
+
+        //Make sure the initial program counter is valid
+        if (!nextBinaryToken()) {
+            throw new MemfileException("The memfile is empty", line);
+        }
+        int pc_length = tokenLength();
+        boolean pc_valid = binary_valid;
+        int init_pc = binary_value;
+        int pc_line = token_line;
+
+        if (!nextBinaryToken()) {
+            throw new MemfileException("The memfile has no initial accumulator value", pc_line);
+        }
+        int accum_length = tokenLength();
+        boolean accum_valid = binary_valid;
+        int init_accum = binary_value;
+
+        //Memfiles written for the 8 bit address space keep working when memory is larger
+        if ((pc_length != memory_bits) && (pc_length != 8)) {
+            String widths = (memory_bits == 8) ? "8" : ("8 or " + memory_bits);
+            throw new MemfileException(String.format("Initial PC value in memfile is not %s characters. Line %d", widths, pc_line), pc_line);
+        }
+
+        //Make sure the initial accumulator value is 12 bits
+        if (accum_length != 12) {
+            throw new MemfileException(String.format("Initial accumulator value in memfile is not 12 characters. Line %d", token_line), token_line);
+        }
+
+        //Make sure memfile pc value is a binary string
+        if (!pc_valid) {
+            throw new MemfileException(String.format("Initial PC value in memfile is not a binary string. Line %d", pc_line), pc_line);
+        }
+
+        //Make sure memfile accumulator value is a binary string
+        if (!accum_valid) {
+            throw new MemfileException(String.format("Initial accumulator value in memfile is not a binary string. Line %d", token_line), token_line);
+        }
+
+        int i = 0;
+        while (nextToken()) {
+            int address_start = token_start;
+            int address_end = token_end;
+            int address_line = token_line;
+
+            //Make sure the memfile doesnt provide more instructions than memory can handle
+            if (i > (memory_locations - 1)) {
+                throw new MemfileException(String.format("The memfile has more instructions than memory allows. Line %d (address %s)", address_line, label(address_start, address_end)), address_line);
+            }
+
+            //Make sure that the next line also has instruction data
+            if (!nextBinaryToken()) {
+                throw new MemfileException(String.format("Instruction address %s has no data. Line %d", label(address_start, address_end), address_line), address_line);
+            }
+
+            //Make sure it is a valid binary string
+            if (!binary_valid) {
+                throw new MemfileException(String.format("Memfile has invalid binary string. Line %d (address %s)", token_line, label(address_start, address_end)), token_line);
+            }
+
+            //Make sure its exactly 12 characters
+            if (tokenLength() != 12) {
+                throw new MemfileException(String.format("Memfile string has %d characters. Exactly 12 is required. Line %d (address %s)", tokenLength(), token_line, label(address_start, address_end)), token_line);
+            }
+
+            // Make sure it's a valid opcode
+            int opcodeBinary = binary_value >> 8;
+            if (!Opcodes.isValidOpcode(opcodeBinary)) {
+                throw new MemfileException(String.format(
+                    "Memfile has illegal opcode %s. Line %d (address %s)",
+                    String.format("%4s", Integer.toBinaryString(opcodeBinary & 0xF)).replace(' ', '0'),
+                    token_line,
+                    label(address_start, address_end)
+                ), token_line);
+            }
+
+            //Save results in temp location
+            temp_mem[i] = (binary_value & 0xFFF);
+            i++;
+        }
+
+        return new MemoryImage(init_pc & (memory_locations - 1), init_accum & 0xFFF, temp_mem);
+    }
+
+    //Moves to the next whitespace separated token, counting lines along the way. Returns false at the end of the file
+    private boolean nextToken() {
+        while (pos < bytes.length && isWhitespace(bytes[pos])) {
+            if (bytes[pos] == '\n') {
+                line++;
+            }
+            pos++;
+        }
+        if (pos >= bytes.length) {
+            return false;
+        }
+        token_start = pos;
+        token_line = line;
+        while (pos < bytes.length && !isWhitespace(bytes[pos])) {
+            pos++;
+        }
+        token_end = pos;
+        return true;
+    }
+
+    //Same as nextToken, but also decodes the token as a binary number while checking that it only holds 0's and 1's
+    private boolean nextBinaryToken() {
+        if (!nextToken()) {
+            return false;
+        }
+        int value = 0;
+        boolean valid = true;
+        for (int i = token_start; i < token_end; i++) {
+            int bit = bytes[i] - '0';
+            valid &= (bit == 0 || bit == 1);
+            value = (value << 1) | (bit & 0x01);
+        }
+        binary_value = value;
+        binary_valid = valid;
+        return true;
+    }
+
+    private int tokenLength() {
+        return token_end - token_start;
+    }
+
+    //The address label of a line is only turned into a String when an error needs to be reported
+    private String label(int start, int end) {
+        return new String(bytes, start, end - start, StandardCharsets.US_ASCII);
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return (b == ' ') || (b == '\n') || (b == '\r') || (b == '\t') || (b == '\f') || (b == 0x0B);
+    }
+}
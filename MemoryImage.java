@@ -0,0 +1,38 @@
+/**
+ * The contents of a memfile: the initial pc, the initial accumulator, and the initial value of every memory location.
+ * A Hardware object can be created from it directly. The words array should be treated as read only, so one image can be
+ * shared by many simulations.
+ */
+
+public class MemoryImage {
+    public final int init_pc;
+    public final int init_accum;
+    public final int[] words;
+
+    /**
+     * @param init_pc the pc of the first instruction
+     * @param init_accum the initial value of the accumulator
+     * @param words the initial value of each memory location
+     */
+    public MemoryImage(int init_pc, int init_accum, int[] words) {
+        this.init_pc = init_pc;
+        this.init_accum = init_accum;
+        this.words = words;
+    }
+
+    /**
+     * Create an image that is the same as this one except for a few words. This image is not modified, so one parsed image
+     * can be the base of many variations.
+     * @param addresses memory locations to change
+     * @param values new value of each location (only the lower 12 bits are kept)
+     * @param init_accum initial accumulator of the new image
+     * @return the new image
+     */
+    public MemoryImage withOverrides(int[] addresses, int[] values, int init_accum) {
+        int[] copy = words.clone();
+        for (int i = 0; i < addresses.length; i++) {
+            copy[addresses[i]] = values[i] & 0xFFF;
+        }
+        return new MemoryImage(init_pc, init_accum & 0xFFF, copy);
+    }
+}
@@ -0,0 +1,388 @@
+/**
+ * Calculates the performance metrics of a simulation while it runs. At the end of each clock, the hardware object passes a
+ * snapshot of the last stage (pc, opcode, and whether an instruction retired) to record(). Each snapshot is folded into the
+ * running metrics right away and then thrown out, so the memory used does not grow with the length of the run, and the metrics
+ * can be read at any clock.
+ *
+ * Instructions are counted when they retire: when stage 5 latches an instruction that was not squashed by a flush. So the
+ * instruction count and mix are the instructions the program executed, the same whatever the branch predictor does, and the
+ * CPI of two runs with different predictors can be compared. Stalls are the clocks after the pipe filled that retired nothing.
+ *
+ * Raw records replayed without the retire flag (see Simulator.proccessResults) fall back to the original post run processing:
+ *      ->The first 4 snapshots are garbage from filling the pipe, and are skipped
+ *      ->An instruction that sits in stage 5 for 4 extra clocks (a stall) only counts once
+ * which also counts the wrong path instructions a flush squashed.
+ *
+ * Stall sources are estimated from the snapshots alone: every 4th repeat of an opcode is blamed on that opcode.
+ */
+
+public class MetricsAccumulator implements Cloneable {
+
+    public static final int CLOCKS_TO_FILL_PIPE = 4;
+    public static final int STALLS_PER_FLUSH = CLOCKS_TO_FILL_PIPE;
+    public static final int WINDOW_CLOCKS = 1024;           //clocks in each window of the windowed CPI
+    public static final int WINDOW_HISTORY = 512;           //number of windowed CPI values kept, oldest are overwritten
+
+    private int num_records = 0;                //one record per clock, plus one for the halt
+    private TraceBuffer trace;                  //instruction trace, only kept if the caller asked for it
+    private TraceBuffer history;                //raw stage 5 records, only kept if the caller asked for it
+    private TraceWriter trace_file;             //raw stage 5 records streamed to disk, only if the caller asked for it
+
+    //State used to remove stalls from the instruction trace
+    private int prev_pc;
+    private int prev_opcode;
+    private int repeat_state_counter = 0;
+    private int trace_size = 0;
+
+    private InstructionMix mix = new InstructionMix();
+
+    //Counts of pipeline events, reported by the hardware as they happen
+    private int last_pc = 0;                    //pc of the last record
+    private int flushes = 0;
+    private int store_conflicts = 0;
+
+    //CPI of each window of WINDOW_CLOCKS clocks, in a ring so the memory used does not grow with the run
+    private double[] window_cpi = new double[WINDOW_HISTORY];
+    private int windows = 0;                    //number of windows finished so far
+    private int window_start_instructions = 0;
+
+    //State used to estimate stall sources. The estimate compares against the 5th snapshot first, so the first 5 opcodes are held
+    private int[] startup_opcodes = new int[CLOCKS_TO_FILL_PIPE + 1];
+    private int stall_prev_opcode;
+    private int stall_repeat_counter = 0;
+    private int j_stalls = 0;
+    private int jn_stalls = 0;
+    private int jz_stalls = 0;
+    private int store_stalls = 0;
+    private int storei_stalls = 0;
+    private int other_stalls = 0;
+
+    /**
+     * Create an accumulator that does not keep the instruction trace
+     */
+    public MetricsAccumulator() {
+        this(null, null);
+    }
+
+    /**
+     * @param trace buffer that every executed instruction is added to, or null to only keep the metrics
+     * @param history buffer that every stage 5 record is added to before folding, or null
+     */
+    public MetricsAccumulator(TraceBuffer trace, TraceBuffer history) {
+        this.trace = trace;
+        this.history = history;
+    }
+
+    /**
+     * @param trace_file writer that every stage 5 record is streamed to before folding, or null to stop streaming
+     */
+    public void setTraceWriter(TraceWriter trace_file) {
+        this.trace_file = trace_file;
+    }
+
+    /**
+     * Fold one stage 5 snapshot into the metrics
+     * @param pc the pc of the instruction in stage 5
+     * @param opcode the opcode binary of the instruction in stage 5
+     * @param retired true if stage 5 latched this instruction on this clock and it was not squashed
+     */
+    public void record(int pc, int opcode, boolean retired) {
+        int i = num_records++;
+        if (history != null) {
+            history.add(pc, opcode);
+        }
+        if (trace_file != null) {
+            trace_file.add(pc, opcode);
+        }
+        if (retired) {
+            addToInstructionTrace(pc, opcode);
+        }
+        foldStallSources(i, opcode);
+        endClock(pc);
+    }
+
+    /**
+     * Fold one raw stage 5 snapshot into the metrics, when it is not known whether it retired. Instructions are then counted by
+     * the original repeat folding, which also counts squashed wrong path instructions
+     * @param pc the pc of the instruction in stage 5
+     * @param opcode the opcode binary of the instruction in stage 5
+     */
+    public void record(int pc, int opcode) {
+        int i = num_records++;
+        if (history != null) {
+            history.add(pc, opcode);
+        }
+        if (trace_file != null) {
+            trace_file.add(pc, opcode);
+        }
+        foldInstructionTrace(i, pc, opcode);
+        foldStallSources(i, opcode);
+        endClock(pc);
+    }
+
+    //Bookkeeping done after every snapshot, by either record
+    private void endClock(int pc) {
+        last_pc = pc;
+
+        //Close the window every WINDOW_CLOCKS clocks
+        if ((num_records % WINDOW_CLOCKS) == 0) {
+            int instructions = trace_size - window_start_instructions;
+            window_cpi[windows % WINDOW_HISTORY] = (instructions == 0) ? 0.0 : (0.0 + WINDOW_CLOCKS) / instructions;
+            window_start_instructions = trace_size;
+            windows++;
+        }
+    }
+
+    /**
+     * Count a branch that flushed the pipe
+     */
+    public void countFlush() {
+        flushes++;
+    }
+
+    /**
+     * Count an instruction that was stalled because it uses an address a recent store is still writing
+     */
+    public void countStoreConflict() {
+        store_conflicts++;
+    }
+
+    //Removes a set of 4 similar instructions from each set of consecutive repeating instructions.
+    private void foldInstructionTrace(int i, int pc, int opcode) {
+        //The first four snapshots are garbage. When the program starts, the final register has 0's. This is intrepted as a jump 
+        //instruction, but is not executed because it lacks the control signals.
+        if (i < CLOCKS_TO_FILL_PIPE) {
+            return;
+        }
+
+        if (i == CLOCKS_TO_FILL_PIPE) {
+            addToInstructionTrace(pc, opcode);
+        } else if ((pc != prev_pc) || (opcode != prev_opcode)) {
+            //the new state doesnt match the old, but the most recent instruction was a duplicate
+            if (repeat_state_counter < STALLS_PER_FLUSH) {
+                //add those duplicates to the instructoin trace if there was not 4 of them
+                for (int j = 0; j < repeat_state_counter; j++) {
+                    addToInstructionTrace(prev_pc, prev_opcode);
+                }
+            }
+            //either way, add the new instruction.
+            addToInstructionTrace(pc, opcode);
+            repeat_state_counter = 0;
+        } else if (repeat_state_counter == STALLS_PER_FLUSH) {
+            //if iterating over repeated elements, only omit every 4 repeats
+            addToInstructionTrace(pc, opcode);
+            repeat_state_counter = 0;
+        } else {
+            //omit repeats if you havent found 4 of them yet.
+            repeat_state_counter++;
+        }
+
+        prev_pc = pc;
+        prev_opcode = opcode;
+    }
+
+    //Updates the running total of each type of instruction for the instruction mix
+    private void addToInstructionTrace(int pc, int opcode) {
+        trace_size++;
+        if (trace != null) {
+            trace.add(pc, opcode);
+        }
+
+        mix.add(opcode);
+    }
+
+    //Every 4th consecutive repeat of an opcode is counted as a stall caused by that opcode
+    private void foldStallSources(int i, int opcode) {
+        if (i < CLOCKS_TO_FILL_PIPE) {
+            startup_opcodes[i] = opcode;
+        } else if (i == CLOCKS_TO_FILL_PIPE) {
+            startup_opcodes[i] = opcode;
+            stall_prev_opcode = opcode;
+            for (int op : startup_opcodes) {
+                countStallSource(op);
+            }
+        } else {
+            countStallSource(opcode);
+        }
+    }
+
+    private void countStallSource(int opcode) {
+        stall_repeat_counter = (opcode != stall_prev_opcode) ? 0 : (stall_repeat_counter + 1);
+        if (stall_repeat_counter == 4) {
+            switch (opcode) {
+                case (0b0000):
+                    j_stalls++;
+                    break;
+                case (0b0001):
+                    jn_stalls++;
+                    break;
+                case (0b0010):
+                    jz_stalls++;
+                    break;
+                case (0b0101):
+                    store_stalls++;
+                    break;
+                case (0b0111):
+                    storei_stalls++;
+                    break;
+                default:
+                    other_stalls++;
+                    break;
+            }
+            stall_repeat_counter = 0;
+        }
+        stall_prev_opcode = opcode;
+    }
+
+    /**
+     * @return number of clocks recorded so far
+     */
+    public int getNumClocks() {
+        return num_records;
+    }
+
+    /**
+     * @return number of instructions that retired so far
+     */
+    public int getNumInstructions() {
+        return trace_size;
+    }
+
+    /**
+     * @return number of clocks after the pipe filled that did not retire an instruction (stalls and flush refills)
+     */
+    public int getNumStalls() {
+        return Math.max(0, (num_records - STALLS_PER_FLUSH) - trace_size);
+    }
+
+    /**
+     * @return clocks per instruction so far, or 0 if no instruction has finished yet
+     */
+    public double getCpi() {
+        return (trace_size == 0) ? 0.0 : (0.0 + num_records) / trace_size;
+    }
+
+    public InstructionMix getInstructionMix() {
+        return mix;
+    }
+
+    public int getAluOps() {
+        return mix.alu_ops;
+    }
+
+    public int getLoadOps() {
+        return mix.load_ops;
+    }
+
+    public int getStoreOps() {
+        return mix.store_ops;
+    }
+
+    public int getBranchOps() {
+        return mix.branch_ops;
+    }
+
+    public int getMiscOps() {
+        return mix.misc_ops;
+    }
+
+    //Stall sources. Each counted repeat represents 4 stalled clocks
+    public int getJmpStalls() {
+        return j_stalls * STALLS_PER_FLUSH;
+    }
+
+    public int getJnStalls() {
+        return jn_stalls * STALLS_PER_FLUSH;
+    }
+
+    public int getJzStalls() {
+        return jz_stalls * STALLS_PER_FLUSH;
+    }
+
+    public int getStoreStalls() {
+        return store_stalls * STALLS_PER_FLUSH;
+    }
+
+    public int getStoreIStalls() {
+        return storei_stalls * STALLS_PER_FLUSH;
+    }
+
+    public int getOtherStalls() {
+        return other_stalls * STALLS_PER_FLUSH;
+    }
+
+    /**
+     * @return pc of the instruction in stage 5 at the last clock
+     */
+    public int getLastPc() {
+        return last_pc;
+    }
+
+    public int getFlushes() {
+        return flushes;
+    }
+
+    public int getStoreConflicts() {
+        return store_conflicts;
+    }
+
+    /**
+     * @return CPI of the last finished window of WINDOW_CLOCKS clocks, or 0 if no window has finished yet
+     */
+    public double getWindowCpi() {
+        return (windows == 0) ? 0.0 : window_cpi[(windows - 1) % WINDOW_HISTORY];
+    }
+
+    /**
+     * @return CPI of the most recent finished windows (at most WINDOW_HISTORY of them), oldest first
+     */
+    public double[] getWindowCpiHistory() {
+        int n = Math.min(windows, WINDOW_HISTORY);
+        double[] history = new double[n];
+        for (int i = 0; i < n; i++) {
+            history[i] = window_cpi[(windows - n + i) % WINDOW_HISTORY];
+        }
+        return history;
+    }
+
+    /**
+     * @return number of windows of WINDOW_CLOCKS clocks finished so far
+     */
+    public int getNumWindows() {
+        return windows;
+    }
+
+    /**
+     * @return the instruction trace, or null if it is not being kept
+     */
+    public TraceBuffer getInstructionTrace() {
+        return trace;
+    }
+
+    /**
+     * @return the raw stage 5 records, or null if they are not being kept
+     */
+    public TraceBuffer getHistory() {
+        return history;
+    }
+
+    /**
+     * Copy every count, so the copy can keep recording without changing this one. The trace and history buffers are not
+     * copied (they can be very large), so the copy does not keep them.
+     * @return a copy of the counts
+     */
+    public MetricsAccumulator copyCounts() {
+        try {
+            MetricsAccumulator copy = (MetricsAccumulator) super.clone();
+            copy.trace = null;
+            copy.history = null;
+            copy.trace_file = null;
+            copy.startup_opcodes = startup_opcodes.clone();
+            copy.mix = mix.copy();
+            copy.window_cpi = window_cpi.clone();
+            return copy;
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError();
+        }
+    }
+}
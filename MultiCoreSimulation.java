@@ -0,0 +1,231 @@
+import java.util.concurrent.Phaser;
+
+/**
+ * Runs several s12 cores that share one memory. Each core is a full pipeline (its own pc, accumulator, latches, store scoreboard
+ * and branch predictor) clocked by its own Simulator, on its own host thread. Every core starts at the pc of the memfile, and
+ * core i starts with its accumulator set to the memfile's accumulator plus i, so a program can tell the cores apart.
+ *
+ * The cores move in lock step: every core runs one clock, then waits on a Phaser until all of them have. While a clock runs, a
+ * core only reads and writes its own view of memory, so the threads share nothing. The last core to arrive merges the stores
+ * of that clock into the shared memory, and every core's view is then replaced with the shared memory (pages are shared, not
+ * copied, see PagedMemory). So a store is seen by its own core as usual, and by the other cores from the next clock on. A store
+ * is merged once, on the clock it reaches stage 5, even if it stays there while the pipe is stalled.
+ *
+ * Stores to the same address in the same clock are arbitrated by core number: the lowest numbered core wins, and its word is
+ * the one memory keeps. Each of these is counted as a store collision. The store scoreboard of each core only tracks that
+ * core's own stores.
+ *
+ *              java Simulator -cores N [-max-cycles C] file.mem
+ *
+ * A core that halts stops taking part in the lock step, and the run ends when every core has halted. Loop detection does not
+ * apply to shared memory, so a program that may spin forever should be given -max-cycles.
+ */
+
+public class MultiCoreSimulation {
+
+    public static final int MAX_CORES = 64;
+
+    private final Core[] cores;
+    private final PagedMemory memory;               //the shared memory, only written between clocks
+    private final Phaser phaser;
+    private int collisions = 0;                     //stores that lost arbitration
+    private long host_nanos;
+
+    //One pipeline, and the store it wrote on the clock it just ran
+    private class Core implements Runnable {
+        final int id;
+        final Simulator sim;
+        int write_address = -1;                     //address the last clock wrote, -1 if it did not write
+        int write_value;
+        String error;                               //why the host thread failed, null if it did not
+
+        Core(int id, Simulator sim) {
+            this.id = id;
+            this.sim = sim;
+        }
+
+        @Override
+        public void run() {
+            boolean running = true;
+            boolean latched_5 = false;              //stage 5 was latched by the last clock, it is not a store sitting out a stall
+            try {
+                while (running) {
+                    //The clock writes the store that stage 5 holds now. A store that stays in stage 5 is written again on every
+                    //clock it stays there, but only its first write goes to the shared memory
+                    Hardware p = sim.getHardware();
+                    write_address = ((p.write_enable_5 == 0x01) && latched_5) ? p.storeAddress() : -1;
+                    write_value = p.accum_5;
+                    latched_5 = (p.en_4_2 == 0x01);
+
+                    running = sim.step();
+                    if (running) {
+                        phaser.arriveAndAwaitAdvance();
+                    }
+                }
+            } catch (RuntimeException e) {
+                error = e.toString();
+            } finally {
+                phaser.arriveAndDeregister();
+            }
+        }
+    }
+
+    /**
+     * @param image the program every core runs, and the initial shared memory. Not modified
+     * @param num_cores number of cores
+     * @param options settings used for every core. Results are never printed by the individual cores
+     */
+    public MultiCoreSimulation(MemoryImage image, int num_cores, SimulationOptions options) {
+        SimulationOptions core_options = options.copy();
+        core_options.print_results = false;
+        core_options.loop_check = false;            //another core can always change memory
+        core_options.checkpoint_interval = 0;
+        core_options.seek_cycles.clear();
+
+        memory = new PagedMemory(image.words);
+        cores = new Core[num_cores];
+        for (int i = 0; i < num_cores; i++) {
+            Simulator sim = Simulator.stepper(new MemoryImage(image.init_pc, (image.init_accum + i) & 0xFFF, image.words), core_options);
+            sim.getHardware().memory.shareFrom(memory);
+            cores[i] = new Core(i, sim);
+        }
+
+        phaser = new Phaser(num_cores) {
+            @Override
+            protected boolean onAdvance(int phase, int parties) {
+                mergeStores();
+                return parties == 0;
+            }
+        };
+    }
+
+    //Entry point for -cores on the command line
+    public static void main(SimulationOptions options) {
+        String memfile = options.memfile();
+        MemoryImage image;
+        try {
+            image = ImageCache.load(memfile, options.memory_bits);
+        } catch (MemfileException e) {
+            System.out.println(e.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        System.out.println(memfile);
+        MultiCoreSimulation multi = new MultiCoreSimulation(image, options.cores, options);
+        multi.run();
+        System.out.println(multi);
+
+        for (Core core : multi.cores) {
+            if ((core.error != null) || (core.sim.getStopReason() != null)) {
+                System.exit(1);
+            }
+        }
+    }
+
+    /**
+     * Clock every core until all of them have halted (or used up SimulationOptions.max_cycles)
+     */
+    public void run() {
+        Thread[] threads = new Thread[cores.length];
+        long start = System.nanoTime();
+        for (int i = 0; i < cores.length; i++) {
+            threads[i] = new Thread(cores[i], "s12-core-" + i);
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the cores", e);
+            }
+        }
+        host_nanos = System.nanoTime() - start;
+    }
+
+    //Runs between two clocks, while every core waits. Lower numbered cores are written last, so they win arbitration
+    private void mergeStores() {
+        for (int i = cores.length - 1; i >= 0; i--) {
+            Core core = cores[i];
+            if (core.write_address < 0) {
+                continue;
+            }
+            for (int j = 0; j < i; j++) {
+                if (cores[j].write_address == core.write_address) {
+                    collisions++;
+                    break;
+                }
+            }
+            memory.write(core.write_address, core.write_value);
+            core.write_address = -1;
+        }
+        for (Core core : cores) {
+            Hardware h = core.sim.getHardware();
+            if (h.executeHalt == 0x00) {
+                h.memory.shareFrom(memory);
+            }
+        }
+    }
+
+    /**
+     * @return a copy of the shared memory
+     */
+    public int[] getMemory() {
+        return memory.toArray();
+    }
+
+    /**
+     * @return number of stores that were overwritten by a lower numbered core's store to the same address in the same clock
+     */
+    public int getCollisions() {
+        return collisions;
+    }
+
+    /**
+     * @param core core number
+     * @return the run of that core
+     */
+    public Simulator getCore(int core) {
+        return cores[core].sim;
+    }
+
+    /**
+     * @return clocks until the last core halted
+     */
+    public int getNumCycles() {
+        int cycles = 0;
+        for (Core core : cores) {
+            cycles = Math.max(cycles, core.sim.getNumCycles());
+        }
+        return cycles;
+    }
+
+    /**
+     * Get a string with the metrics of every core, and of the whole run
+     */
+    public String toString() {
+        long core_clocks = 0;
+        long instructions = 0;
+        String tempString = "";
+        tempString += "\nMULTI CORE METRICS (" + cores.length + " cores, shared memory)";
+        tempString += "\n_________________________";
+        tempString += "\n\t" + String.format("%-5s %8s %8s %8s %8s %8s %7s  %s", "CORE", "CPI", "CLOCKS", "INSTRS", "STALLS", "FLUSHES", "ACCUM", "STOPPED");
+        for (Core core : cores) {
+            MetricsAccumulator m = core.sim.getMetrics();
+            String stopped = (core.error != null) ? core.error : ((core.sim.getStopReason() != null) ? core.sim.getStopReason() : "");
+            tempString += "\n\t" + String.format("%-5d %8.4f %8d %8d %8d %8d   0x%03X  %s", core.id, m.getCpi(), m.getNumClocks(),
+                    m.getNumInstructions(), m.getNumStalls(), m.getFlushes(), core.sim.getFinalAccumulator(), stopped);
+            core_clocks += core.sim.getNumCycles();
+            instructions += m.getNumInstructions();
+        }
+        tempString += "\n";
+        tempString += "\n\tNUM CLOCKS:    " + getNumCycles();
+        tempString += "\n\t" + String.format("IPC (ALL):     %.4f", (getNumCycles() == 0) ? 0.0 : (0.0 + instructions) / getNumCycles());
+        tempString += "\n\tCOLLISIONS:    " + collisions + " (stores to the same address in the same clock, lowest core kept)";
+        tempString += "\n\t" + String.format("HOST TIME:     %.3f ms (%.0f core clocks per second)", host_nanos / 1e6,
+                (host_nanos == 0) ? 0.0 : core_clocks / (host_nanos / 1e9));
+        tempString += "\n";
+        return tempString;
+    }
+}
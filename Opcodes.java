@@ -19,6 +19,15 @@ public enum Opcodes {
     //Binary representation of the opcode
     private final int code;
 
+    //Lookup table from opcode binary to opcode object, so decoding never scans or copies values()
+    private static final Opcodes[] BY_CODE = new Opcodes[16];
+
+    static {
+        for (Opcodes op : Opcodes.values()) {
+            BY_CODE[op.code] = op;
+        }
+    }
+
     Opcodes(int code) {
         this.code = code;
     }
@@ -37,12 +46,7 @@ public enum Opcodes {
      * @return corresponding opcode object
      */
     public static Opcodes fromCode(int code) {
-        for (Opcodes op : Opcodes.values()) {
-            if (op.code == code) {
-                return op;
-            }
-        }
-        return null;
+        return ((code >= 0) && (code < BY_CODE.length)) ? BY_CODE[code] : null;
     }
 
     /**
@@ -59,12 +63,7 @@ public enum Opcodes {
      * @return true if code corresponds to an opcode, false otherwise
      */
     public static boolean isValidOpcode(int code) {
-        for (Opcodes op : Opcodes.values()) {
-            if (op.code == code) {
-                return true;
-            }
-        }
-        return false;
+        return fromCode(code) != null;
     }
 
 }
@@ -0,0 +1,212 @@
+import java.util.Arrays;
+
+/**
+ * The memory of the s12, split into small pages that are shared between Hardware snapshots.
+ *
+ * Every clock creates a new Hardware snapshot, but at most one word of memory changes per clock (and only when a store reaches
+ * stage 5). Instead of copying every word for each snapshot, a snapshot shares the page table of the memory it was taken from.
+ * The first write after sharing copies the page table, and each page is copied the first time it is written. So the cost of a
+ * snapshot grows with the number of writes, not with the size of memory.
+ *
+ * The page table has two levels: a directory of blocks, each holding BLOCK_SIZE pages. A write only copies the directory, the
+ * one block and the one page it touches, so the cost of a write barely grows with the size of memory either (a 4096 word
+ * memory has a 16 entry directory).
+ *
+ * Pages that only hold zeros all point to the same page, and blocks that only hold zero pages to the same block, which keeps
+ * large, mostly empty memories small.
+ */
+
+public class PagedMemory {
+
+    public static final int PAGE_BITS = 4;                      //each page holds 2^PAGE_BITS words
+    public static final int PAGE_SIZE = (1 << PAGE_BITS);
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    public static final int BLOCK_BITS = 4;                     //each block holds 2^BLOCK_BITS pages
+    public static final int BLOCK_SIZE = (1 << BLOCK_BITS);
+    private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+    private static final int BLOCK_SHIFT = PAGE_BITS + BLOCK_BITS;
+    private static final int[] ZERO_PAGE = new int[PAGE_SIZE];  //shared by every page that has never been written with a non zero value
+    private static final int[][] ZERO_BLOCK = new int[BLOCK_SIZE][];
+
+    static {
+        Arrays.fill(ZERO_BLOCK, ZERO_PAGE);
+    }
+
+    private final int size;         //number of words
+    private int[][][] blocks;       //directory of blocks, possibly shared with other snapshots
+    private boolean owns_table;     //false if another snapshot may still be reading 'blocks'
+    private boolean[] owns_block;   //which blocks were copied since this memory last took ownership of the directory
+    private boolean[][] owns_page;  //which pages of each owned block were copied since the block was
+    private int hash;               //sum of wordHash over every location, kept up to date by write
+
+    /**
+     * Create a memory from the words of a memfile
+     * @param words initial value of each memory location. The memory has the same number of locations as the array
+     */
+    public PagedMemory(int[] words) {
+        this.size = words.length;
+        int num_pages = (size + PAGE_SIZE - 1) >> PAGE_BITS;
+        int num_blocks = (num_pages + BLOCK_SIZE - 1) >> BLOCK_BITS;
+        blocks = new int[num_blocks][][];
+        owns_block = new boolean[num_blocks];
+        owns_page = new boolean[num_blocks][];
+        Arrays.fill(blocks, ZERO_BLOCK);
+
+        for (int p = 0; p < num_pages; p++) {
+            int start = p << PAGE_BITS;
+            int end = Math.min(start + PAGE_SIZE, size);
+            boolean empty = true;
+            for (int i = start; i < end; i++) {
+                empty &= (words[i] == 0);
+            }
+            if (!empty) {
+                int b = p >> BLOCK_BITS;
+                ownBlock(b);
+                blocks[b][p & BLOCK_MASK] = new int[PAGE_SIZE];
+                System.arraycopy(words, start, blocks[b][p & BLOCK_MASK], 0, end - start);
+                owns_page[b][p & BLOCK_MASK] = true;
+            }
+        }
+        owns_table = true;
+        for (int i = 0; i < size; i++) {
+            hash += wordHash(i, words[i]);
+        }
+    }
+
+    //Create a memory that shares all of its blocks with 'other'
+    private PagedMemory(PagedMemory other) {
+        this.size = other.size;
+        this.blocks = other.blocks;
+        this.hash = other.hash;
+        this.owns_table = false;
+    }
+
+    /**
+     * @param address location to read
+     * @return the word at that location
+     */
+    public int read(int address) {
+        return blocks[address >> BLOCK_SHIFT][(address >> PAGE_BITS) & BLOCK_MASK][address & PAGE_MASK];
+    }
+
+    /**
+     * Write a word, copying only the directory, the block and the page that hold the address if they are shared
+     * @param address location to write
+     * @param value word to write
+     */
+    public void write(int address, int value) {
+        int b = address >> BLOCK_SHIFT;
+        int page = (address >> PAGE_BITS) & BLOCK_MASK;
+
+        if (!owns_table) {
+            blocks = blocks.clone();
+            if (owns_block == null) {
+                owns_block = new boolean[blocks.length];
+                owns_page = new boolean[blocks.length][];
+            } else {
+                Arrays.fill(owns_block, false);
+            }
+            owns_table = true;
+        }
+
+        if (!owns_block[b]) {
+            ownBlock(b);
+        }
+
+        int[][] block = blocks[b];
+        if (!owns_page[b][page]) {
+            block[page] = block[page].clone();
+            owns_page[b][page] = true;
+        }
+
+        hash += wordHash(address, value) - wordHash(address, block[page][address & PAGE_MASK]);
+        block[page][address & PAGE_MASK] = value;
+    }
+
+    //Copies a block so its page references can change. Its pages are still shared until they are written
+    private void ownBlock(int b) {
+        blocks[b] = blocks[b].clone();
+        if (owns_page[b] == null) {
+            owns_page[b] = new boolean[BLOCK_SIZE];
+        } else {
+            Arrays.fill(owns_page[b], false);
+        }
+        owns_block[b] = true;
+    }
+
+    //Mixes one location into the memory hash. The hash is a sum of these, so a write only has to swap one term
+    private static int wordHash(int address, int value) {
+        int h = (address * 0x9E3779B1) + value;
+        h ^= (h >>> 16);
+        h *= 0x85EBCA6B;
+        h ^= (h >>> 13);
+        return h;
+    }
+
+    /**
+     * @return a hash of every word in memory. Updated on each write, so reading it costs nothing
+     */
+    public int hash() {
+        return hash;
+    }
+
+    /**
+     * @param other another memory
+     * @return true if both memories hold the same words. Blocks and pages that are shared are not compared word by word
+     */
+    public boolean sameContents(PagedMemory other) {
+        if ((size != other.size) || (hash != other.hash)) {
+            return false;
+        }
+        for (int b = 0; b < blocks.length; b++) {
+            if (blocks[b] == other.blocks[b]) {
+                continue;
+            }
+            for (int p = 0; p < BLOCK_SIZE; p++) {
+                if ((blocks[b][p] != other.blocks[b][p]) && !Arrays.equals(blocks[b][p], other.blocks[b][p])) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Take a snapshot that shares every page with this memory. Both memories copy on their next write.
+     * @return the new snapshot
+     */
+    public PagedMemory snapshot() {
+        owns_table = false;
+        return new PagedMemory(this);
+    }
+
+    /**
+     * Same as snapshot, but reuses this object instead of allocating a new one. Used by the double buffered simulation.
+     * @param other the memory this one should become a snapshot of
+     */
+    public void shareFrom(PagedMemory other) {
+        other.owns_table = false;
+        this.blocks = other.blocks;
+        this.hash = other.hash;
+        this.owns_table = false;
+    }
+
+    /**
+     * @return number of words in memory
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return a plain copy of every word in memory
+     */
+    public int[] toArray() {
+        int[] words = new int[size];
+        for (int start = 0; start < size; start += PAGE_SIZE) {
+            int[] page = blocks[start >> BLOCK_SHIFT][(start >> PAGE_BITS) & BLOCK_MASK];
+            System.arraycopy(page, 0, words, start, Math.min(PAGE_SIZE, size - start));
+        }
+        return words;
+    }
+}
@@ -0,0 +1,275 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs one memfile many times with different inputs. Benchmark programs read their inputs from fixed data addresses (like the
+ * factorial input at 0x8A), so each input is described as an address and a range of values to write there. The initial
+ * accumulator can be swept the same way. Every combination of values is simulated, and the results are printed as one row
+ * per combination, so you can see how CPI, clocks and stalls scale with the inputs.
+ *
+ * The memfile is parsed once. Each combination is a copy of that image with a few words changed, and the combinations are
+ * split between threads with fork/join.
+ *
+ *              java Simulator -sweep 0x8A=1..12 [-sweep ADDRESS=START..END[:STEP] ...] [-sweep-accum START..END[:STEP]] file.mem
+ */
+
+public class ParameterSweep {
+
+    private static final int POINTS_PER_TASK = 4;   //combinations a fork/join task runs itself instead of splitting further
+
+    /**
+     * One swept input: a memory address (or the initial accumulator) and the values it takes
+     */
+    public static class Axis {
+        public static final int ACCUMULATOR = -1;   //address used for the initial accumulator
+
+        public final int address;
+        public final int start;
+        public final int end;
+        public final int step;
+
+        public Axis(int address, int start, int end, int step) {
+            if (step <= 0 || end < start) {
+                throw new IllegalArgumentException(String.format("Sweep range %d..%d:%d is empty", start, end, step));
+            }
+            this.address = address;
+            this.start = start;
+            this.end = end;
+            this.step = step;
+        }
+
+        /**
+         * @param spec "ADDRESS=START..END" or "ADDRESS=START..END:STEP". Numbers can be decimal or 0x hex
+         * @param memory_bits the width of an address, so the address must be below 2^memory_bits
+         * @return the axis described by spec
+         */
+        public static Axis parse(String spec, int memory_bits) {
+            int equals = spec.indexOf('=');
+            if (equals < 0) {
+                throw new IllegalArgumentException("Sweep '" + spec + "' should look like ADDRESS=START..END[:STEP]");
+            }
+            int address = Integer.decode(spec.substring(0, equals));
+            if (address < 0 || address >= (1 << memory_bits)) {
+                throw new IllegalArgumentException("Sweep address " + spec.substring(0, equals) + " is outside of memory");
+            }
+            return parseRange(address, spec.substring(equals + 1));
+        }
+
+        /**
+         * @param address memory address, or ACCUMULATOR
+         * @param range "START..END" or "START..END:STEP"
+         * @return the axis described by range
+         */
+        public static Axis parseRange(int address, String range) {
+            int dots = range.indexOf("..");
+            if (dots < 0) {
+                throw new IllegalArgumentException("Sweep range '" + range + "' should look like START..END[:STEP]");
+            }
+            int colon = range.indexOf(':', dots);
+            int start = Integer.decode(range.substring(0, dots));
+            int end = Integer.decode(range.substring(dots + 2, (colon < 0) ? range.length() : colon));
+            int step = (colon < 0) ? 1 : Integer.decode(range.substring(colon + 1));
+            return new Axis(address, start, end, step);
+        }
+
+        public int size() {
+            return ((end - start) / step) + 1;
+        }
+
+        public int valueAt(int i) {
+            return start + (i * step);
+        }
+
+        public String label() {
+            return (address == ACCUMULATOR) ? "ACCUM" : String.format("[0x%02X]", address);
+        }
+    }
+
+    /**
+     * The inputs of one combination and the result of simulating it
+     */
+    public static class Point {
+        public final int[] values;                  //value of each axis, in the same order as the axes
+        public SimulationResult result;
+
+        Point(int[] values) {
+            this.values = values;
+        }
+    }
+
+    private final MemoryImage base;
+    private final List<Axis> axes;
+    private final SimulationOptions options;
+
+    /**
+     * @param base parsed memfile that every combination starts from. Not modified
+     * @param axes inputs to sweep
+     * @param options settings used for every run. Results are never printed by the individual runs
+     */
+    public ParameterSweep(MemoryImage base, List<Axis> axes, SimulationOptions options) {
+        this.base = base;
+        this.axes = axes;
+        this.options = options.copy();
+        this.options.print_results = false;
+        this.options.trace_file = null;             //every run would write the same file
+    }
+
+    //Entry point for -sweep on the command line
+    public static void main(SimulationOptions options) {
+        MemoryImage base;
+        try {
+            base = ImageCache.load(options.memfile(), options.memory_bits);
+        } catch (MemfileException e) {
+            System.out.println(e.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        ParameterSweep sweep = new ParameterSweep(base, options.sweep_axes, options);
+        long start = System.nanoTime();
+        List<Point> points = sweep.run();
+        long elapsed = System.nanoTime() - start;
+
+        System.out.println(sweep.formatTable(points));
+        System.out.println(String.format("%d combinations in %.3f s", points.size(), elapsed / 1e9));
+    }
+
+    /**
+     * @return number of combinations of every axis
+     */
+    public int numPoints() {
+        long n = 1;
+        for (Axis axis : axes) {
+            n *= axis.size();
+        }
+        if (n > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Sweep has too many combinations: " + n);
+        }
+        return (int) n;
+    }
+
+    /**
+     * Simulate every combination. The first axis changes slowest, the last axis changes fastest
+     * @return one point per combination
+     */
+    public List<Point> run() {
+        int n = numPoints();
+        Point[] points = new Point[n];
+        for (int i = 0; i < n; i++) {
+            points[i] = new Point(valuesAt(i));
+        }
+
+        ForkJoinPool pool = (options.threads > 0) ? new ForkJoinPool(options.threads) : ForkJoinPool.commonPool();
+        try {
+            pool.invoke(new SweepTask(points, 0, n));
+        } finally {
+            if (pool != ForkJoinPool.commonPool()) {
+                pool.shutdown();
+            }
+        }
+
+        List<Point> list = new ArrayList<>(n);
+        for (Point p : points) {
+            list.add(p);
+        }
+        return list;
+    }
+
+    //Turns a combination number into the value of each axis (a mixed radix number)
+    private int[] valuesAt(int index) {
+        int[] values = new int[axes.size()];
+        for (int a = axes.size() - 1; a >= 0; a--) {
+            Axis axis = axes.get(a);
+            values[a] = axis.valueAt(index % axis.size());
+            index /= axis.size();
+        }
+        return values;
+    }
+
+    //Simulates a single combination
+    private SimulationResult runPoint(Point point) {
+        int init_accum = base.init_accum;
+        int num_words = 0;
+        for (Axis axis : axes) {
+            num_words += (axis.address == Axis.ACCUMULATOR) ? 0 : 1;
+        }
+
+        int[] addresses = new int[num_words];
+        int[] values = new int[num_words];
+        int w = 0;
+        for (int a = 0; a < axes.size(); a++) {
+            if (axes.get(a).address == Axis.ACCUMULATOR) {
+                init_accum = point.values[a];
+            } else {
+                addresses[w] = axes.get(a).address;
+                values[w] = point.values[a];
+                w++;
+            }
+        }
+
+        long start = System.nanoTime();
+        try {
+            Simulator sim = new Simulator(base.withOverrides(addresses, values, init_accum), options);
+            return SimulationResult.of(options.memfile(), sim, System.nanoTime() - start);
+        } catch (RuntimeException e) {
+            return SimulationResult.failed(options.memfile(), e.toString());
+        }
+    }
+
+    //Splits the combinations in half until there are few enough to run directly
+    private class SweepTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Point[] points;
+        private final int from;
+        private final int to;
+
+        SweepTask(Point[] points, int from, int to) {
+            this.points = points;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= POINTS_PER_TASK) {
+                for (int i = from; i < to; i++) {
+                    points[i].result = runPoint(points[i]);
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new SweepTask(points, from, mid), new SweepTask(points, mid, to));
+        }
+    }
+
+    /**
+     * @param points the result of run()
+     * @return a table with one row per combination
+     */
+    public String formatTable(List<Point> points) {
+        StringBuilder table = new StringBuilder();
+        StringBuilder header = new StringBuilder();
+        for (Axis axis : axes) {
+            header.append(String.format("%8s  ", axis.label()));
+        }
+        header.append(String.format("%8s  %10s  %10s  %10s", "CPI", "CLOCKS", "STALLS", "INSTRS"));
+        table.append(header).append("\n");
+        table.append("_".repeat(header.length())).append("\n");
+
+        for (Point p : points) {
+            for (int v : p.values) {
+                table.append(String.format("%8d  ", v));
+            }
+            SimulationResult r = p.result;
+            if (!r.succeeded()) {
+                table.append("FAILED: ").append(r.error).append("\n");
+                continue;
+            }
+            table.append(String.format("%8.4f  %10d  %10d  %10d", r.cpi, r.num_clocks, r.num_stalls, r.num_instructions)).append("\n");
+        }
+        return table.toString();
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ * Measures where the host spends its time inside Hardware.clock. Timing every phase of every clock with System.nanoTime would
+ * cost more than the phases themselves, so only one clock in every 'interval' is timed (Hardware.clockProfiled); the others run
+ * the normal clock. Most phases take less time than a nanoTime call, so each phase time is an estimate: the average cost of a
+ * pair of nanoTime calls is measured when the report is made (after the JIT has warmed up) and taken off each timed phase.
+ *
+ * The simulation only creates a profiler if SimulationOptions.profile_interval is set, and the normal clock has no profiling code
+ * in it, so a run without -profile only pays for one null check per clock. Clocks stepped in place by -fast-forward
+ * (Hardware.stepInPlace) do not go through the phases one at a time, so they are sampled the same way but timed as a whole, in a
+ * bucket of their own.
+ */
+
+public class PhaseProfiler {
+
+    public static final int DEFAULT_INTERVAL = 64;
+
+    //Same order as the calls in Hardware.clock
+    public static final String[] PHASES = {
+        "updateMemory",
+        "updatePc",
+        "latch",
+        "updateAccum",
+        "combinationalLogic",
+        "branchLogic",
+        "haltLogic",
+        "generateControlSignals",
+        "generatStoreControlSignals",
+        "saveStage5State"
+    };
+
+    private final int interval;
+    private final long[] nanos = new long[PHASES.length];
+    private int countdown;
+    private long clocks = 0;                    //every clock, timed or not
+    private long timed_clocks = 0;
+
+    //Clocks stepped in place by -fast-forward
+    private long in_place_nanos = 0;
+    private long in_place_clocks = 0;
+    private long timed_in_place_clocks = 0;
+
+    /**
+     * @param interval time one clock in every 'interval' clocks
+     */
+    public PhaseProfiler(int interval) {
+        this.interval = Math.max(1, interval);
+        this.countdown = this.interval;
+    }
+
+    //Average cost of a pair of nanoTime calls. The average (not the minimum) is taken off, since the phase times are averages too
+    private static long measureTimerOverhead() {
+        int pairs = 100000;
+        long sum = 0;
+        for (int i = 0; i < pairs; i++) {
+            long start = System.nanoTime();
+            long end = System.nanoTime();
+            sum += end - start;
+        }
+        return sum / pairs;
+    }
+
+    /**
+     * Called once per clock
+     * @return true if this clock should be timed
+     */
+    public boolean sample() {
+        clocks++;
+        if (--countdown == 0) {
+            countdown = interval;
+            timed_clocks++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Called once per clock stepped in place, instead of sample()
+     * @return true if this clock should be timed
+     */
+    public boolean sampleInPlace() {
+        in_place_clocks++;
+        if (--countdown == 0) {
+            countdown = interval;
+            timed_in_place_clocks++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Add the time of one timed clock stepped in place
+     * @param elapsed nanoseconds between the nanoTime calls around Hardware.stepInPlace
+     */
+    public void addInPlace(long elapsed) {
+        in_place_nanos += elapsed;
+    }
+
+    /**
+     * Add the time of one phase of a timed clock
+     * @param phase index into PHASES
+     * @param elapsed nanoseconds between the nanoTime calls around the phase
+     */
+    public void add(int phase, long elapsed) {
+        nanos[phase] += elapsed;
+    }
+
+    /**
+     * @return table of the estimated host time of each phase over the whole run, and of the clocks stepped in place
+     */
+    public String toString() {
+        //Each timed phase includes one pair of nanoTime calls
+        long timer_overhead = measureTimerOverhead();
+        long[] phase_nanos = new long[PHASES.length];
+        double[] phase_ms = new double[PHASES.length];
+        double scale = (timed_clocks == 0) ? 0.0 : (0.0 + clocks) / timed_clocks;
+        double total_ms = 0;
+        for (int i = 0; i < PHASES.length; i++) {
+            phase_nanos[i] = Math.max(0, nanos[i] - (timer_overhead * timed_clocks));
+            phase_ms[i] = (phase_nanos[i] * scale) / 1e6;
+            total_ms += phase_ms[i];
+        }
+        long in_place = Math.max(0, in_place_nanos - (timer_overhead * timed_in_place_clocks));
+        double in_place_scale = (timed_in_place_clocks == 0) ? 0.0 : (0.0 + in_place_clocks) / timed_in_place_clocks;
+        double in_place_ms = (in_place * in_place_scale) / 1e6;
+        total_ms += in_place_ms;
+
+        String tempString = "";
+        tempString += "\nCLOCK PHASE PROFILE (1 in " + interval + " of " + (clocks + in_place_clocks) + " clocks timed, timer overhead " + timer_overhead + " ns removed)";
+        tempString += "\n_________________________";
+        tempString += String.format("\n\t%-28s %10s %8s %7s", "PHASE", "EST. MS", "NS/CLOCK", "SHARE");
+        for (int i = 0; i < PHASES.length; i++) {
+            double per_clock = (timed_clocks == 0) ? 0.0 : (0.0 + phase_nanos[i]) / timed_clocks;
+            double share = (total_ms == 0) ? 0.0 : (100.0 * phase_ms[i]) / total_ms;
+            tempString += String.format("\n\t%-28s %10.3f %8.1f %6.1f%%", PHASES[i], phase_ms[i], per_clock, share);
+        }
+        if (in_place_clocks > 0) {
+            //A whole clock per row, not a phase, so the per clock time is not comparable with the rows above
+            double per_clock = (timed_in_place_clocks == 0) ? 0.0 : (0.0 + in_place) / timed_in_place_clocks;
+            double share = (total_ms == 0) ? 0.0 : (100.0 * in_place_ms) / total_ms;
+            tempString += String.format("\n\t%-28s %10.3f %8.1f %6.1f%%", "stepInPlace (" + in_place_clocks + " clocks)", in_place_ms, per_clock, share);
+        }
+        tempString += String.format("\n\t%-28s %10.3f", "TOTAL", total_ms);
+        return tempString;
+    }
+}
@@ -0,0 +1,361 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Estimates the CPI of a run without clocking every instruction through the pipeline, for programs that run too long to
+ * simulate cycle by cycle.
+ *
+ * The program runs on the FunctionalEngine, which only updates memory, the pc and the accumulator. The run is split into periods
+ * of 'period' instructions, and one window is measured in each, at a random instruction of the period. A window is a new
+ * pipelined Simulator started from the architectural state at that instruction, with an empty pipe and a copy of the branch
+ * predictor (which the functional engine trains on every branch, so its history is warm). It clocks between 'warmup' and
+ * 2 * 'warmup' clocks to fill the pipe, then measures the next 'window' clocks. The functional engine carries on from where it
+ * was, so a window never changes the program. The offsets and the warm up lengths are random because a window starts with an
+ * empty pipe, so in a loop every window would otherwise start and end measuring at the same point of an iteration.
+ *
+ * Each window gives a CPI, a stall rate and a flush rate, per instruction as MetricsAccumulator counts them (so they compare
+ * directly with a full run). The estimate is their average weighted by the instructions of each period, and the 95% confidence
+ * interval is 1.96 standard errors of the windows. The interval is only printed for 30 windows or more, since with fewer the
+ * normal approximation it rests on does not hold.
+ *
+ * A program that ends before the first window's offset is clocked whole, from its first instruction and without a warm up, so
+ * its estimate is the CPI of the full run.
+ *
+ *              java Simulator -sample [-sample-every N] [-sample-warmup N] [-sample-window N] [-sample-check] Benchmarks/
+ */
+
+public class SampledSimulation {
+
+    public static final int DEFAULT_PERIOD = 1000;      //instructions between the starts of two windows
+    public static final int DEFAULT_WARMUP = 64;        //clocks a window runs before measuring, to fill the pipe
+    public static final int DEFAULT_WINDOW = 256;       //clocks a window measures
+    private static final double Z_95 = 1.96;            //standard errors on each side of a 95% confidence interval
+    private static final int MIN_INTERVAL_SAMPLES = 30; //fewer windows than this are too few for the normal approximation
+    private static final long SEED = 12;                //seed of the window offsets, so every run of a program picks the same windows
+
+    private final SimulationOptions options;            //options of the windows (and of the full run, for -sample-check)
+
+    /**
+     * One measured window
+     */
+    private static class Sample {
+        int start;                  //first instruction of the period the window stands for
+        int instructions;           //instructions measured
+        int clocks;                 //clocks measured
+        int stalls;
+        int flushes;
+    }
+
+    /**
+     * A sampled estimate of a run
+     */
+    public static class Result {
+        public final String name;
+        public final String error;              //why the memfile could not be sampled, null if it was
+        public int instructions;                //every instruction the program executed, counted by the functional engine
+        public int samples;                     //windows that measured at least one instruction
+        public int detailed_clocks;             //clocks simulated by every window, warm up included
+        public double cpi;
+        public double cpi_error;                //half the width of the 95% confidence interval, 0 with fewer than 2 windows
+                                                //(only printed for MIN_INTERVAL_SAMPLES windows or more)
+        public double stall_rate;               //stalls per instruction
+        public double stall_error;
+        public double flush_rate;               //flushes per instruction
+        public double flush_error;
+        public String stop_reason;              //why the functional run ended before a HALT, null if it halted
+        public long host_nanos;
+
+        //Set by -sample-check
+        public SimulationResult full;           //the run with every clock simulated, null if it was not run
+
+        Result(String name, String error) {
+            this.name = name;
+            this.error = error;
+        }
+
+        public boolean succeeded() {
+            return error == null;
+        }
+
+        /**
+         * @return how far the estimated CPI is from the CPI of the full run, as a fraction of it
+         */
+        public double cpiError() {
+            return (cpi - full.cpi) / full.cpi;
+        }
+
+        /**
+         * @return true if there are enough windows for the confidence interval to mean something
+         */
+        public boolean hasInterval() {
+            return samples >= MIN_INTERVAL_SAMPLES;
+        }
+
+        /**
+         * @return true if the CPI of the full run is inside the confidence interval
+         */
+        public boolean fullInInterval() {
+            return Math.abs(cpi - full.cpi) <= cpi_error;
+        }
+    }
+
+    /**
+     * @param options settings used for every window. Results are never printed by the windows
+     */
+    public SampledSimulation(SimulationOptions options) {
+        this.options = options.copy();
+        this.options.print_results = false;
+        this.options.trace_file = null;
+        this.options.jmx = false;
+        this.options.keep_trace = false;
+        this.options.history_size = 0;
+        this.options.seek_cycles.clear();
+        this.options.loop_check = false;            //the functional engine decides when the program ends
+    }
+
+    //Entry point for -sample on the command line
+    public static void main(SimulationOptions options) {
+        if ((options.sample_warmup < 0) || (options.sample_window <= 0)) {
+            System.out.println("Options -sample-warmup and -sample-window must not be negative, and -sample-window must not be 0");
+            System.exit(1);
+        }
+        List<String> files = BatchRunner.findMemfiles(options.inputs);
+        if (files.isEmpty()) {
+            System.out.println("No memfiles found in " + options.inputs);
+            System.exit(1);
+        }
+
+        SampledSimulation sampler = new SampledSimulation(options);
+        List<Result> results = new ArrayList<>();
+        for (String file : files) {
+            results.add(sampler.runOne(file));
+        }
+
+        System.out.println(String.format("Sampling every %d instructions, %d clock warm up, %d clock windows",
+                options.sample_period, options.sample_warmup, options.sample_window));
+        System.out.println(formatTable(results));
+
+        for (Result r : results) {
+            if (!r.succeeded()) {
+                System.exit(1);
+            }
+        }
+    }
+
+    /**
+     * Load and sample a single memfile, and also simulate every clock of it if SimulationOptions.sample_check is set
+     * @param file memfile path
+     * @return the estimate, or the reason it failed
+     */
+    public Result runOne(String file) {
+        MemoryImage image;
+        try {
+            image = ImageCache.load(file, options.memory_bits);
+        } catch (MemfileException e) {
+            return new Result(file, e.getMessage());
+        }
+
+        long start = System.nanoTime();
+        Result result = run(file, image);
+        result.host_nanos = System.nanoTime() - start;
+
+        if (options.sample_check) {
+            SimulationOptions full = options.copy();
+            full.checkpoint_interval = 0;
+            full.max_cycles = 0;
+            full.loop_check = true;
+            start = System.nanoTime();
+            result.full = SimulationResult.of(file, new Simulator(image, full), System.nanoTime() - start);
+        }
+        return result;
+    }
+
+    /**
+     * Sample a program
+     * @param name name to report the result under
+     * @param image the program. Not modified
+     * @return the estimate
+     */
+    public Result run(String name, MemoryImage image) {
+        FunctionalEngine engine = new FunctionalEngine(image, null);
+        BranchPredictor predictor = BranchPredictor.create((options.predictor != null) ? options.predictor : BranchPredictor.DEFAULT);
+        engine.setPredictor(predictor);
+
+        Result result = new Result(name, null);
+        List<Sample> samples = new ArrayList<>();
+        Random random = new Random(SEED);
+        int budget = options.max_cycles;                //an instruction budget, like in -functional
+
+        for (int stratum = 0; !engine.isHalted(); stratum += options.sample_period) {
+            int start = stratum + random.nextInt(options.sample_period);
+            int limit = (budget > 0) ? Math.min(start, budget) : start;
+            if (engine.getNumExecuted() < limit) {
+                engine.run(limit);
+            }
+            if (engine.isHalted() || (engine.getNumExecuted() < start)) {
+                break;
+            }
+            int warmup = options.sample_warmup + random.nextInt(options.sample_warmup + 1);
+            Sample s = measure(engine, predictor, warmup, options.sample_window, result);
+            s.start = stratum;
+            if (s.instructions > 0) {
+                samples.add(s);
+            }
+        }
+
+        //A program that ended before the first window's offset is clocked whole instead: from its first instruction, with no warm
+        //up to subtract, until it halts (or for one window, if it used up the budget)
+        if (samples.isEmpty() && (engine.getNumExecuted() > 0)) {
+            FunctionalEngine first = new FunctionalEngine(image, null);
+            int clocks = engine.isHalted() ? 0 : options.sample_window;
+            Sample s = measure(first, BranchPredictor.create(predictor.getName()), 0, clocks, result);
+            if (s.instructions > 0) {
+                samples.add(s);
+            }
+        }
+        if (!engine.isHalted()) {
+            result.stop_reason = "instruction budget of " + budget + " used up";
+        }
+
+        result.instructions = engine.getNumExecuted();
+        result.samples = samples.size();
+        estimate(samples, result);
+        return result;
+    }
+
+    //Runs one detailed window from the current state of the functional engine. 'clocks' of 0 measures until the program halts
+    private Sample measure(FunctionalEngine engine, BranchPredictor predictor, int warmup, int clocks, Result result) {
+        SimulationOptions window = options.copy();
+        window.initial_predictor = predictor;
+        window.checkpoint_interval = warmup;            //the checkpoint after the warm up holds the metrics to subtract
+        window.max_cycles = (clocks > 0) ? warmup + clocks : 0;
+
+        Sample s = new Sample();
+        Simulator sim = new Simulator(new MemoryImage(engine.getPc(), engine.getAccumulator(), engine.getMemory()), window);
+        result.detailed_clocks += sim.getNumCycles();
+
+        //A program that halts during the warm up is measured from the empty pipe instead
+        MetricsAccumulator from = new MetricsAccumulator();
+        if ((warmup > 0) && (sim.getNumCycles() > warmup)) {
+            from = sim.seek(warmup).metrics;
+        }
+        MetricsAccumulator to = sim.getMetrics();
+
+        s.instructions = to.getNumInstructions() - from.getNumInstructions();
+        s.clocks = to.getNumClocks() - from.getNumClocks();
+        s.stalls = to.getNumStalls() - from.getNumStalls();
+        s.flushes = to.getFlushes() - from.getFlushes();
+        return s;
+    }
+
+    //Weights each window by the instructions of its period (the last period of a run can be shorter)
+    private void estimate(List<Sample> samples, Result result) {
+        int n = samples.size();
+        if (n == 0) {
+            result.cpi = Double.NaN;
+            result.stall_rate = Double.NaN;
+            result.flush_rate = Double.NaN;
+            return;
+        }
+
+        double[] weights = new double[n];
+        double[] cpi = new double[n];
+        double[] stall_rate = new double[n];
+        double[] flush_rate = new double[n];
+        for (int i = 0; i < n; i++) {
+            Sample s = samples.get(i);
+            weights[i] = Math.max(1, Math.min(options.sample_period, result.instructions - s.start));
+            cpi[i] = (0.0 + s.clocks) / s.instructions;
+            stall_rate[i] = (0.0 + s.stalls) / s.instructions;
+            flush_rate[i] = (0.0 + s.flushes) / s.instructions;
+        }
+
+        result.cpi = weightedMean(cpi, weights);
+        result.cpi_error = interval(cpi, weights, result.cpi);
+        result.stall_rate = weightedMean(stall_rate, weights);
+        result.stall_error = interval(stall_rate, weights, result.stall_rate);
+        result.flush_rate = weightedMean(flush_rate, weights);
+        result.flush_error = interval(flush_rate, weights, result.flush_rate);
+    }
+
+    private static double weightedMean(double[] values, double[] weights) {
+        double sum = 0;
+        double total = 0;
+        for (int i = 0; i < values.length; i++) {
+            sum += values[i] * weights[i];
+            total += weights[i];
+        }
+        return sum / total;
+    }
+
+    //Half the width of the 95% confidence interval of the weighted mean, using the effective number of windows
+    private static double interval(double[] values, double[] weights, double mean) {
+        int n = values.length;
+        if (n < 2) {
+            return 0.0;
+        }
+        double total = 0;
+        double squares = 0;
+        double variance = 0;
+        for (int i = 0; i < n; i++) {
+            total += weights[i];
+            squares += weights[i] * weights[i];
+            variance += weights[i] * (values[i] - mean) * (values[i] - mean);
+        }
+        double effective_n = (total * total) / squares;
+        variance = (variance / total) * (effective_n / (effective_n - 1));
+        return Z_95 * Math.sqrt(variance / effective_n);
+    }
+
+    /**
+     * @param results the estimate of each memfile
+     * @return a table with one row per memfile. The full run columns are only filled in by -sample-check
+     */
+    public static String formatTable(List<Result> results) {
+        int width = "MEMFILE".length();
+        for (Result r : results) {
+            width = Math.max(width, r.name.length());
+        }
+
+        StringBuilder table = new StringBuilder();
+        String header = String.format("%-" + width + "s  %8s  %7s  %8s  %16s  %16s  %16s  %8s  %8s  %5s  %9s  %9s",
+                "MEMFILE", "EXECUTED", "SAMPLES", "DETAILED", "CPI", "STALLS/INSTR", "FLUSHES/INSTR",
+                "FULL CPI", "ERROR", "IN CI", "HOST MS", "FULL MS");
+        table.append(header).append("\n");
+        table.append("_".repeat(header.length())).append("\n");
+
+        for (Result r : results) {
+            if (!r.succeeded()) {
+                table.append(String.format("%-" + width + "s  FAILED: %s", r.name, r.error)).append("\n");
+                continue;
+            }
+            String full_cpi = "-";
+            String error = "-";
+            String in_interval = "-";
+            String full_ms = "-";
+            if ((r.full != null) && r.full.succeeded() && (r.samples > 0)) {
+                full_cpi = String.format("%.4f", r.full.cpi);
+                error = String.format("%+.2f%%", 100.0 * r.cpiError());
+                in_interval = !r.hasInterval() ? "-" : (r.fullInInterval() ? "yes" : "no");
+                full_ms = String.format("%.3f", r.full.host_nanos / 1e6);
+            }
+            table.append(String.format("%-" + width + "s  %8d  %7d  %8d  %16s  %16s  %16s  %8s  %8s  %5s  %9.3f  %9s",
+                    r.name, r.instructions, r.samples, r.detailed_clocks,
+                    withInterval(r.cpi, r.cpi_error, r.hasInterval()), withInterval(r.stall_rate, r.stall_error, r.hasInterval()),
+                    withInterval(r.flush_rate, r.flush_error, r.hasInterval()),
+                    full_cpi, error, in_interval, r.host_nanos / 1e6, full_ms)).append("\n");
+            if (r.stop_reason != null) {
+                table.append("    stopped: ").append(r.stop_reason).append("\n");
+            }
+        }
+        return table.toString();
+    }
+
+    private static String withInterval(double value, double error, boolean has_interval) {
+        if (Double.isNaN(value)) {
+            return "-";
+        }
+        return has_interval ? String.format("%.4f +-%.4f", value, error) : String.format("%.4f +-n/a", value);
+    }
+}
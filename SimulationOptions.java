@@ -0,0 +1,325 @@
+import java.util.ArrayList;
+
+/**
+ * Holds the settings that change how a simulation is run, but not what it computes. A default options object runs the
+ * simulation exactly like 'java Simulator file.mem'. That is the behavior of the original simulator, except that:
+ *      ->loop_check is on, so a run whose pipeline state repeats is stopped as non-terminating instead of clocking forever
+ *        (-no-loop-check turns it off)
+ *      ->instructions are counted when they retire (see MetricsAccumulator), so runs that flush the pipe report fewer
+ *        instructions, a higher CPI and more stalls than the original, which also counted squashed instructions
+ */
+
+public class SimulationOptions {
+
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 1024;    //used by -seek when -checkpoint is not given
+
+    public boolean double_buffered = false;     //alternate two preallocated Hardware objects instead of cloning one every clock
+    public boolean fast_forward = false;        //step through store stalls and flush refills in place instead of snapshotting every clock
+    public boolean keep_trace = false;          //keep every executed instruction in memory (grows with the length of the run)
+    public String trace_file = null;            //file to stream every raw stage 5 record to (see TraceWriter), null writes none
+    public String dump_trace = null;            //trace file to print instead of running a simulation (see TraceReader)
+    public int dump_from = 0;                   //clock to start printing the dumped trace at
+    public int dump_runs = 0;                   //number of runs to print from the dumped trace, 0 prints all of them
+    public int history_size = 0;                //number of raw stage 5 records to keep in a ring buffer, 0 keeps none
+    public int checkpoint_interval = 0;         //clocks between checkpoints of the full hardware state, 0 takes none
+    public ArrayList<Integer> seek_cycles = new ArrayList<>();  //clocks to rewind to and print the hardware state of after the run
+    public boolean functional = false;          //run the program at the instruction set level instead of clocking the pipeline
+    public boolean loop_check = true;           //end the run early if the pipeline state repeats, since it can then never halt
+    public int max_cycles = 0;                  //end the run after this many clocks (instructions in functional mode), 0 for no limit
+    public int profile_interval = 0;            //time the phases of one clock in every this many (see PhaseProfiler), 0 does not profile
+    public boolean jmx = false;                 //publish live counters of each running simulation as a JMX bean (see SimulatorMonitor)
+    public boolean forwarding = false;          //forward the word stage 5 is writing into the stage 2 and 3 lookups, so stores stall less
+    public String predictor = null;             //branch predictor (see BranchPredictor.NAMES), null uses not-taken and does not report it
+    public BranchPredictor initial_predictor = null;    //history the branch predictor starts with (each run copies it), null starts empty
+    public int memory_bits = Simulator.MEMORY_BITS;        //width of an address, memory has 2^memory_bits locations (see -memory-bits)
+    public boolean print_results = true;        //print metrics when the run ends. Turned off when many runs share one console
+
+    //Batch mode
+    public boolean batch = false;               //run every memfile in 'inputs' (directories are searched) and print one table
+    public int threads = 0;                     //worker threads for batch and sweep modes, 0 uses one per core
+
+    //Multi core mode
+    public int cores = 1;                       //pipelines sharing one memory (see MultiCoreSimulation), 1 runs a single pipeline
+
+    //Report mode
+    public String report_dir = null;            //directory to write the speed vs space report to (see BenchmarkReport), null writes none
+    public String report_baseline = null;       //report.csv of an earlier report to check for regressions against, null checks none
+    public int report_cpi_threshold = BenchmarkReport.DEFAULT_CPI_THRESHOLD;                   //percent the CPI may go up by
+    public int report_throughput_threshold = BenchmarkReport.DEFAULT_THROUGHPUT_THRESHOLD;     //percent the host speed may go down by
+    public int report_repeat = BenchmarkReport.DEFAULT_REPEAT;                                 //runs of each memfile, the fastest is kept
+
+    //Server mode
+    public int serve_port = -1;                 //loopback port to serve simulations on (see SimulationServer), 0 picks one, -1 does not serve
+    public int serve_concurrency = 0;           //simulations the server runs at once, 0 uses one per core
+    public int serve_max_cycles = SimulationServer.DEFAULT_MAX_CYCLES;  //most clocks the server runs one request for
+
+    //Sampled mode
+    public int sample_period = 0;               //instructions between the starts of two detailed windows, 0 clocks every instruction
+    public int sample_warmup = SampledSimulation.DEFAULT_WARMUP;    //clocks each window runs before it starts measuring
+    public int sample_window = SampledSimulation.DEFAULT_WINDOW;    //clocks each window measures
+    public boolean sample_check = false;        //also clock every instruction, to report how far off the sampled estimate is
+
+    //Sweep mode
+    public ArrayList<ParameterSweep.Axis> sweep_axes = new ArrayList<>();  //inputs to sweep, empty if not sweeping
+
+    public ArrayList<String> inputs = new ArrayList<>();    //command line arguments that are not flags (memfile paths)
+
+    /**
+     * Reads the command line flags. Unknown flags stop the program, like a bad memfile does.
+     * @param args the arguments passed to main
+     * @return the options selected by the flags
+     */
+    public static SimulationOptions fromArgs(String[] args) {
+        SimulationOptions options = new SimulationOptions();
+        ArrayList<String[]> sweeps = new ArrayList<>();     //flag and value of each sweep, parsed once every flag is read
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("-")) {
+                options.inputs.add(arg);
+                continue;
+            }
+            switch (arg) {
+                case "-double-buffer":
+                    options.double_buffered = true;
+                    break;
+                case "-fast-forward":
+                    options.fast_forward = true;
+                    break;
+                case "-keep-trace":
+                    options.keep_trace = true;
+                    break;
+                case "-functional":
+                    options.functional = true;
+                    break;
+                case "-batch":
+                    options.batch = true;
+                    break;
+                case "-threads":
+                    options.threads = intValue(args, ++i, arg);
+                    break;
+                case "-cores":
+                    options.cores = intValue(args, ++i, arg);
+                    if ((options.cores < 1) || (options.cores > MultiCoreSimulation.MAX_CORES)) {
+                        System.out.println("Option " + arg + " must be between 1 and " + MultiCoreSimulation.MAX_CORES);
+                        System.exit(1);
+                    }
+                    break;
+                case "-report":
+                    options.report_dir = stringValue(args, ++i, arg);
+                    break;
+                case "-baseline":
+                    options.report_baseline = stringValue(args, ++i, arg);
+                    break;
+                case "-cpi-threshold":
+                    options.report_cpi_threshold = intValue(args, ++i, arg);
+                    break;
+                case "-throughput-threshold":
+                    options.report_throughput_threshold = intValue(args, ++i, arg);
+                    break;
+                case "-report-repeat":
+                    options.report_repeat = intValue(args, ++i, arg);
+                    break;
+                case "-serve":
+                    options.serve_port = intValue(args, ++i, arg);
+                    if ((options.serve_port < 0) || (options.serve_port > 0xFFFF)) {
+                        System.out.println("Option " + arg + " must be a port between 0 and 65535");
+                        System.exit(1);
+                    }
+                    break;
+                case "-serve-concurrency":
+                    options.serve_concurrency = intValue(args, ++i, arg);
+                    break;
+                case "-serve-max-cycles":
+                    options.serve_max_cycles = intValue(args, ++i, arg);
+                    if (options.serve_max_cycles < 1) {
+                        System.out.println("Option " + arg + " must be at least 1");
+                        System.exit(1);
+                    }
+                    break;
+                case "-sample":
+                    options.sample_period = SampledSimulation.DEFAULT_PERIOD;
+                    break;
+                case "-sample-every":
+                    options.sample_period = intValue(args, ++i, arg);
+                    if (options.sample_period < 1) {
+                        System.out.println("Option " + arg + " must be at least 1");
+                        System.exit(1);
+                    }
+                    break;
+                case "-sample-warmup":
+                    options.sample_warmup = intValue(args, ++i, arg);
+                    break;
+                case "-sample-window":
+                    options.sample_window = intValue(args, ++i, arg);
+                    break;
+                case "-sample-check":
+                    options.sample_check = true;
+                    break;
+                case "-sweep":
+                case "-sweep-accum":
+                    sweeps.add(new String[]{arg, stringValue(args, ++i, arg)});
+                    break;
+                case "-checkpoint":
+                    options.checkpoint_interval = intValue(args, ++i, arg);
+                    if (options.checkpoint_interval < 1) {
+                        System.out.println("Option " + arg + " must be at least 1");
+                        System.exit(1);
+                    }
+                    break;
+                case "-seek":
+                    options.seek_cycles.add(intValue(args, ++i, arg));
+                    if (options.seek_cycles.get(options.seek_cycles.size() - 1) < 0) {
+                        System.out.println("Option " + arg + " must be at least 0");
+                        System.exit(1);
+                    }
+                    if (options.checkpoint_interval == 0) {
+                        options.checkpoint_interval = DEFAULT_CHECKPOINT_INTERVAL;
+                    }
+                    break;
+                case "-profile":
+                    options.profile_interval = PhaseProfiler.DEFAULT_INTERVAL;
+                    break;
+                case "-profile-every":
+                    options.profile_interval = intValue(args, ++i, arg);
+                    break;
+                case "-jmx":
+                    options.jmx = true;
+                    break;
+                case "-no-loop-check":
+                    options.loop_check = false;
+                    break;
+                case "-max-cycles":
+                    options.max_cycles = intValue(args, ++i, arg);
+                    break;
+                case "-trace-file":
+                    options.trace_file = stringValue(args, ++i, arg);
+                    break;
+                case "-dump-trace":
+                    options.dump_trace = stringValue(args, ++i, arg);
+                    break;
+                case "-dump-from":
+                    options.dump_from = intValue(args, ++i, arg);
+                    break;
+                case "-dump-runs":
+                    options.dump_runs = intValue(args, ++i, arg);
+                    break;
+                case "-forward":
+                    options.forwarding = true;
+                    break;
+                case "-predictor":
+                    options.predictor = stringValue(args, ++i, arg);
+                    if (BranchPredictor.create(options.predictor) == null) {
+                        System.out.println("Option " + arg + " must be one of " + String.join(", ", BranchPredictor.NAMES));
+                        System.exit(1);
+                    }
+                    break;
+                case "-memory-bits":
+                    options.memory_bits = intValue(args, ++i, arg);
+                    if ((options.memory_bits < Simulator.MEMORY_BITS) || (options.memory_bits > Simulator.MAX_MEMORY_BITS)) {
+                        System.out.println("Option " + arg + " must be between " + Simulator.MEMORY_BITS + " and " + Simulator.MAX_MEMORY_BITS);
+                        System.exit(1);
+                    }
+                    break;
+                case "-history":
+                    options.history_size = intValue(args, ++i, arg);
+                    break;
+                default:
+                    System.out.println("Unknown option " + arg);
+                    System.exit(1);
+            }
+        }
+
+        //Sweep addresses are checked against the memory size, which -memory-bits may set after them
+        for (String[] sweep : sweeps) {
+            options.sweep_axes.add(sweepValue(sweep[1], sweep[0], options.memory_bits));
+        }
+        return options;
+    }
+
+    //Reads the text that follows a flag
+    private static String stringValue(String[] args, int i, String flag) {
+        if (i >= args.length) {
+            System.out.println("Option " + flag + " needs a value");
+            System.exit(1);
+        }
+        return args[i];
+    }
+
+    //Reads the number that follows a flag
+    private static int intValue(String[] args, int i, String flag) {
+        if (i >= args.length) {
+            System.out.println("Option " + flag + " needs a value");
+            System.exit(1);
+        }
+        try {
+            return Integer.decode(args[i]);
+        } catch (NumberFormatException e) {
+            System.out.println("Option " + flag + " needs a number, got " + args[i]);
+            System.exit(1);
+            return 0;
+        }
+    }
+
+    //Reads the range that followed a sweep flag
+    private static ParameterSweep.Axis sweepValue(String value, String flag, int memory_bits) {
+        try {
+            return flag.equals("-sweep-accum") ? ParameterSweep.Axis.parseRange(ParameterSweep.Axis.ACCUMULATOR, value) : ParameterSweep.Axis.parse(value, memory_bits);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Option " + flag + ": " + e.getMessage());
+            System.exit(1);
+            return null;
+        }
+    }
+
+    /**
+     * @return a copy of these options that can be changed without changing these
+     */
+    public SimulationOptions copy() {
+        SimulationOptions copy = new SimulationOptions();
+        copy.double_buffered = double_buffered;
+        copy.fast_forward = fast_forward;
+        copy.keep_trace = keep_trace;
+        copy.trace_file = trace_file;
+        copy.dump_trace = dump_trace;
+        copy.dump_from = dump_from;
+        copy.dump_runs = dump_runs;
+        copy.history_size = history_size;
+        copy.checkpoint_interval = checkpoint_interval;
+        copy.seek_cycles = new ArrayList<>(seek_cycles);
+        copy.functional = functional;
+        copy.loop_check = loop_check;
+        copy.max_cycles = max_cycles;
+        copy.profile_interval = profile_interval;
+        copy.jmx = jmx;
+        copy.forwarding = forwarding;
+        copy.predictor = predictor;
+        copy.initial_predictor = initial_predictor;
+        copy.memory_bits = memory_bits;
+        copy.print_results = print_results;
+        copy.batch = batch;
+        copy.threads = threads;
+        copy.cores = cores;
+        copy.report_dir = report_dir;
+        copy.report_baseline = report_baseline;
+        copy.report_cpi_threshold = report_cpi_threshold;
+        copy.report_throughput_threshold = report_throughput_threshold;
+        copy.report_repeat = report_repeat;
+        copy.serve_port = serve_port;
+        copy.serve_concurrency = serve_concurrency;
+        copy.serve_max_cycles = serve_max_cycles;
+        copy.sample_period = sample_period;
+        copy.sample_warmup = sample_warmup;
+        copy.sample_window = sample_window;
+        copy.sample_check = sample_check;
+        copy.sweep_axes = new ArrayList<>(sweep_axes);
+        copy.inputs = new ArrayList<>(inputs);
+        return copy;
+    }
+
+    /**
+     * @return the last argument that is not a flag, which should be the memfile path. Null if there is none
+     */
+    public String memfile() {
+        return inputs.isEmpty() ? null : inputs.get(inputs.size() - 1);
+    }
+}
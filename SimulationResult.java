@@ -0,0 +1,156 @@
+import java.util.Locale;
+
+/**
+ * The metrics of one finished simulation, detached from the Simulator that produced them. Used wherever many simulations
+ * are run and their results need to be collected into one table.
+ */
+
+public class SimulationResult {
+
+    public final String name;               //memfile path, or another label for the run
+    public final String error;              //why the run failed or never halted, null if it finished
+
+    public final boolean functional;        //true if the functional engine ran it, so there are no timing metrics
+    public final int num_clocks;
+    public final int num_instructions;
+    public final int num_stalls;
+    public final double cpi;
+    public final InstructionMix mix;
+    public final int jmp_stalls;
+    public final int jn_stalls;
+    public final int jz_stalls;
+    public final int store_stalls;
+    public final int storei_stalls;
+    public final int final_accum;
+    public final int flushes;
+    public final String predictor;          //name of the branch predictor, null for functional runs
+    public final int branches;              //branches the predictor saw resolve
+    public final int mispredicts;
+    public final long host_nanos;           //wall clock time the host spent on the run
+
+    private SimulationResult(String name, String error, Simulator sim, long host_nanos) {
+        this.name = name;
+        this.error = (error == null && sim != null) ? sim.getStopReason() : error;
+        this.host_nanos = host_nanos;
+
+        if (sim == null) {
+            functional = false;
+            num_clocks = num_instructions = num_stalls = 0;
+            cpi = 0.0;
+            mix = new InstructionMix();
+            jmp_stalls = jn_stalls = jz_stalls = store_stalls = storei_stalls = 0;
+            final_accum = 0;
+            flushes = branches = mispredicts = 0;
+            predictor = null;
+            return;
+        }
+
+        MetricsAccumulator m = sim.getMetrics();
+        functional = sim.isFunctional();
+        mix = sim.getInstructionMix();
+        num_clocks = m.getNumClocks();
+        num_instructions = functional ? mix.total() : m.getNumInstructions();
+        num_stalls = m.getNumStalls();
+        cpi = m.getCpi();
+        jmp_stalls = m.getJmpStalls();
+        jn_stalls = m.getJnStalls();
+        jz_stalls = m.getJzStalls();
+        store_stalls = m.getStoreStalls();
+        storei_stalls = m.getStoreIStalls();
+        final_accum = sim.getFinalAccumulator();
+        flushes = m.getFlushes();
+        BranchPredictor p = sim.getBranchPredictor();
+        predictor = (p != null) ? p.getName() : null;
+        branches = (p != null) ? p.getBranches() : 0;
+        mispredicts = (p != null) ? p.getMispredicts() : 0;
+    }
+
+    /**
+     * @param name label for the run
+     * @param sim a simulation that has finished
+     * @param host_nanos time the host spent on the run
+     * @return the metrics of the simulation
+     */
+    public static SimulationResult of(String name, Simulator sim, long host_nanos) {
+        return new SimulationResult(name, null, sim, host_nanos);
+    }
+
+    /**
+     * @param name label for the run
+     * @param error why the run failed
+     * @return a result with no metrics
+     */
+    public static SimulationResult failed(String name, String error) {
+        return new SimulationResult(name, error, null, 0);
+    }
+
+    public boolean succeeded() {
+        return error == null;
+    }
+
+    /**
+     * The same metrics Simulator prints (the METRICS and STALL SOURCES sections), as one JSON object
+     * @return the result as JSON
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"name\":").append(jsonString(name));
+        json.append(",\"halted\":").append(error == null);
+        json.append(",\"stop_reason\":").append(jsonString(error));
+        json.append(",\"functional\":").append(functional);
+        json.append(",\"metrics\":{");
+        json.append("\"cpi\":").append(functional ? "null" : String.format(Locale.ROOT, "%.4f", cpi));
+        json.append(",\"clocks\":").append(num_clocks);
+        json.append(",\"instructions\":").append(num_instructions);
+        json.append(",\"stalls\":").append(num_stalls);
+        json.append(",\"load_ops\":").append(mix.load_ops);
+        json.append(",\"store_ops\":").append(mix.store_ops);
+        json.append(",\"alu_ops\":").append(mix.alu_ops);
+        json.append(",\"branch_ops\":").append(mix.branch_ops);
+        json.append(",\"misc_ops\":").append(mix.misc_ops);
+        json.append(",\"flushes\":").append(flushes);
+        json.append("},\"stall_sources\":{");
+        json.append("\"jmp\":").append(jmp_stalls);
+        json.append(",\"jn\":").append(jn_stalls);
+        json.append(",\"jz\":").append(jz_stalls);
+        json.append(",\"store\":").append(store_stalls);
+        json.append(",\"storei\":").append(storei_stalls);
+        json.append("},\"predictor\":");
+        if (predictor == null) {
+            json.append("null");
+        } else {
+            json.append("{\"name\":").append(jsonString(predictor));
+            json.append(",\"branches\":").append(branches);
+            json.append(",\"mispredicts\":").append(mispredicts);
+            json.append("}");
+        }
+        json.append(",\"final_accum\":").append(final_accum);
+        json.append(",\"host_ms\":").append(String.format(Locale.ROOT, "%.3f", host_nanos / 1e6));
+        json.append("}");
+        return json.toString();
+    }
+
+    /**
+     * @param s any text, or null
+     * @return the text as a quoted JSON string, or null
+     */
+    public static String jsonString(String s) {
+        if (s == null) {
+            return "null";
+        }
+        StringBuilder quoted = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if ((c == '"') || (c == '\\')) {
+                quoted.append('\\').append(c);
+            } else if (c == '\n') {
+                quoted.append("\\n");
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
@@ -0,0 +1,305 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps one JVM running and simulates memfiles sent to it over HTTP on the loopback interface, so tools that run many short
+ * simulations do not pay for JVM startup and JIT warm up on every run. The simulator is warmed up before the port opens.
+ *
+ *              java Simulator -serve 8012 [-serve-concurrency N] [-serve-max-cycles C]
+ *
+ *              POST /run                   the body is a memfile (or s12 assembly with ?format=s12)
+ *              POST /run?path=F            simulate the memfile or .s12 file F, read by the server
+ *              GET  /stats                 requests served, rejected and running
+ *
+ * /run takes these query parameters, all optional: max-cycles (clock budget of the run, at most the server's), predictor,
+ * forward, fast-forward and memory-bits (the same as the command line flags). It answers with the METRICS and STALL SOURCES
+ * of the run as JSON (see SimulationResult.toJson). A program that used up its budget or can never halt still answers 200, with
+ * "halted": false and the stop reason. A memfile that does not load, or that executes an unknown opcode, answers 400 with
+ * {"error": ...}.
+ *
+ * Each request runs on its own virtual thread when the JVM has them (Java 21 and up), otherwise on its own platform thread.
+ * Admission control keeps at most 'concurrency' simulations running at once. A request that arrives when they are all busy is
+ * answered 503 right away, with a Retry-After header, instead of queueing behind runs of unknown length.
+ */
+
+public class SimulationServer {
+
+    public static final int DEFAULT_MAX_CYCLES = 10_000_000;   //clock budget of a request that does not ask for less
+    private static final int MAX_BODY_BYTES = 1 << 20;
+    private static final int MAX_CACHED_IMAGES = 1024;          //request bodies are cached by ImageCache, forget them past this
+    private static final int WARMUP_RUNS = 200;
+
+    //Touches every opcode, stalls on stores and flushes on branches, so the warm up compiles the same paths real programs use
+    private static final String WARMUP_PROGRAM = String.join("\n",
+            "0x00: LOAD 40", "STORE 41", "LOADI 42", "STOREI 42", "AND 43", "OR 43", "ADD 43", "SUB 44",
+            "LOAD 41", "SUB 44", "STORE 41", "JN 0D", "JZ 0D", "J 8", "HALT",
+            "0x40: 60", "0x42: 0x45", "0x43: 3", "0x44: 1");
+
+    private final SimulationOptions options;                    //settings every request starts from
+    private final int max_cycles;
+    private final int concurrency;
+    private final Semaphore admission;
+    private final AtomicLong served = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * @param options settings every request starts from. SimulationOptions.serve_concurrency and serve_max_cycles set the limits
+     */
+    public SimulationServer(SimulationOptions options) {
+        this.options = options.copy();
+        this.options.print_results = false;
+        this.options.trace_file = null;
+        this.options.jmx = false;
+        this.options.keep_trace = false;
+        this.options.history_size = 0;
+        this.options.checkpoint_interval = 0;
+        this.options.seek_cycles.clear();
+        this.options.functional = false;
+        this.max_cycles = options.serve_max_cycles;
+        this.concurrency = (options.serve_concurrency > 0) ? options.serve_concurrency : Runtime.getRuntime().availableProcessors();
+        this.admission = new Semaphore(concurrency);
+    }
+
+    //Entry point for -serve on the command line
+    public static void main(SimulationOptions options) {
+        SimulationServer server = new SimulationServer(options);
+        long warmup = server.warmUp();
+        try {
+            int port = server.start(options.serve_port);
+            System.out.println(String.format("Warmed up in %.0f ms. Serving on http://%s:%d/run (%d at a time, %s)", warmup / 1e6,
+                    InetAddress.getLoopbackAddress().getHostAddress(), port, server.concurrency,
+                    server.usesVirtualThreads() ? "virtual threads" : "platform threads"));
+        } catch (IOException e) {
+            System.out.println("Could not open port " + options.serve_port + ": " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Run a small program many times, so the JIT has compiled the simulator before the first request arrives
+     * @return host time the warm up took
+     */
+    public long warmUp() {
+        long start = System.nanoTime();
+        try {
+            MemoryImage image = Assembler.assemble(WARMUP_PROGRAM.getBytes(StandardCharsets.US_ASCII), options.memory_bits);
+            for (int i = 0; i < WARMUP_RUNS; i++) {
+                new Simulator(image, options);
+            }
+        } catch (MemfileException e) {
+            throw new AssertionError(e);
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Open the port. Requests are handled on other threads until stop is called
+     * @param port port on the loopback interface, 0 picks a free one
+     * @return the port the server listens on
+     */
+    public int start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        executor = newRequestExecutor();
+        server.setExecutor(executor);
+        server.createContext("/run", this::handleRun);
+        server.createContext("/stats", this::handleStats);
+        server.start();
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Close the port, and wait at most 'delay' seconds for running requests to finish
+     */
+    public void stop(int delay) {
+        server.stop(delay);
+        executor.shutdown();
+    }
+
+    //Virtual threads when the JVM has them (looked up by name, since the build targets Java 17), a new platform thread per request
+    //otherwise. Either way admission control, not the executor, bounds how many simulations run at once
+    private static ExecutorService newRequestExecutor() {
+        try {
+            Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) virtual.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    private boolean usesVirtualThreads() {
+        return executor.getClass().getName().contains("ThreadPerTask");
+    }
+
+    private void handleRun(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                send(exchange, 405, error("use POST"));
+                return;
+            }
+            if (!admission.tryAcquire()) {
+                rejected.incrementAndGet();
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                send(exchange, 503, error("server busy, " + concurrency + " simulations already running"));
+                return;
+            }
+            try {
+                Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+                SimulationOptions request = requestOptions(query);
+                String path = query.get("path");
+                byte[] body = readBody(exchange.getRequestBody());
+
+                MemoryImage image;
+                if (path != null) {
+                    image = ImageCache.load(path, request.memory_bits);
+                } else if (body == null) {
+                    send(exchange, 413, error("the memfile is larger than " + MAX_BODY_BYTES + " bytes"));
+                    return;
+                } else {
+                    if (ImageCache.size() > MAX_CACHED_IMAGES) {
+                        ImageCache.clear();
+                    }
+                    image = ImageCache.parse(body, "s12".equals(query.get("format")), request.memory_bits);
+                }
+
+                long start = System.nanoTime();
+                Simulator sim = new Simulator(image, request);
+                SimulationResult result = SimulationResult.of((path != null) ? path : "request", sim, System.nanoTime() - start);
+                served.incrementAndGet();
+                send(exchange, 200, result.toJson());
+            } finally {
+                admission.release();
+            }
+        } catch (MemfileException | IllegalArgumentException | IllegalStateException e) {
+            send(exchange, 400, error(e.getMessage()));
+        } catch (RuntimeException e) {
+            send(exchange, 500, error(e.toString()));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleStats(HttpExchange exchange) throws IOException {
+        try {
+            String json = "{\"served\":" + served.get()
+                    + ",\"rejected\":" + rejected.get()
+                    + ",\"running\":" + (concurrency - admission.availablePermits())
+                    + ",\"concurrency\":" + concurrency
+                    + ",\"max_cycles\":" + max_cycles
+                    + ",\"cached_images\":" + ImageCache.size()
+                    + ",\"virtual_threads\":" + usesVirtualThreads() + "}";
+            send(exchange, 200, json);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    //The server's options with the query parameters of one request applied. The clock budget can only be lowered
+    private SimulationOptions requestOptions(Map<String, String> query) {
+        SimulationOptions request = options.copy();
+        request.max_cycles = max_cycles;
+        for (Map.Entry<String, String> e : query.entrySet()) {
+            String value = e.getValue();
+            switch (e.getKey()) {
+                case "max-cycles":
+                    int cycles = intParam(e.getKey(), value);
+                    if (cycles > 0) {
+                        request.max_cycles = Math.min(cycles, max_cycles);
+                    }
+                    break;
+                case "predictor":
+                    if (BranchPredictor.create(value) == null) {
+                        throw new IllegalArgumentException("predictor must be one of " + String.join(", ", BranchPredictor.NAMES));
+                    }
+                    request.predictor = value;
+                    break;
+                case "forward":
+                    request.forwarding = !value.equals("false") && !value.equals("0");
+                    break;
+                case "fast-forward":
+                    request.fast_forward = !value.equals("false") && !value.equals("0");
+                    break;
+                case "memory-bits":
+                    request.memory_bits = intParam(e.getKey(), value);
+                    if ((request.memory_bits < Simulator.MEMORY_BITS) || (request.memory_bits > Simulator.MAX_MEMORY_BITS)) {
+                        throw new IllegalArgumentException("memory-bits must be between " + Simulator.MEMORY_BITS + " and " + Simulator.MAX_MEMORY_BITS);
+                    }
+                    break;
+                case "path":
+                case "format":
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown parameter " + e.getKey());
+            }
+        }
+        return request;
+    }
+
+    private static int intParam(String name, String value) {
+        try {
+            return Integer.decode(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " needs a number, got " + value);
+        }
+    }
+
+    private static Map<String, String> parseQuery(String raw) {
+        Map<String, String> query = new HashMap<>();
+        if (raw == null) {
+            return query;
+        }
+        for (String pair : raw.split("&")) {
+            if (pair.isEmpty()) {
+                continue;
+            }
+            int eq = pair.indexOf('=');
+            String key = URLDecoder.decode((eq < 0) ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            String value = (eq < 0) ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            query.put(key, value);
+        }
+        return query;
+    }
+
+    //The whole body, or null if it is larger than MAX_BODY_BYTES
+    private static byte[] readBody(InputStream in) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            body.write(buffer, 0, n);
+            if (body.size() > MAX_BODY_BYTES) {
+                return null;
+            }
+        }
+        return body.toByteArray();
+    }
+
+    private static String error(String message) {
+        return "{\"error\":" + SimulationResult.jsonString(message) + "}";
+    }
+
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = (json + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -15,43 +15,119 @@
  *
  */
 
-import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Scanner;
-
 
 public class Simulator {
     
-    private final int MEMORY_BITS = 8;
-    private final int MEMORY_LOCATIONS = (1 << MEMORY_BITS);
+    public static final int MEMORY_BITS = 8;                //default width of an address, the most an instruction can name
+    public static final int MEMORY_LOCATIONS = (1 << MEMORY_BITS);
+    public static final int MAX_MEMORY_BITS = 12;           //LOADI and STOREI address memory with a whole 12 bit word
 
     //The simulation supports memfiles that do not start with non zero pc's and accumulators
     private int init_pc;
     private int init_accum;
-    private Scanner scan;
     private Hardware prevHardware;
     private Hardware currentHardware;
     private boolean  simulation_done;
-
-    //Reported Metrics (Calculated after simulation)
-    private ArrayList<Stage5State> instruction_trace;
-    private int num_clocks;
-    private int num_stalls;
-    private int alu_ops;                //AND, OR, ADD, SUB
-    private int load_ops;               //LOAD, STORE
-    private int store_ops;              //LOADI, STORE
-    private int branch_ops;             //JUMP, JN, JZ
-    private int misc_ops;               //HALT
+    private SimulationOptions options;
+    private int cycle;                                  //number of clocks so far
+
+    //Checkpoints, only kept if SimulationOptions.checkpoint_interval is set
+    private ArrayList<Hardware> checkpoints;            //checkpoints.get(i) is the state after i * checkpoint_interval clocks
+    private int checkpoint_interval;
+    private int fast_forwarded_clocks;                  //clocks stepped in place by fastForwardWindow
+    private LoopDetector loop_detector;                 //only used if SimulationOptions.loop_check is set
+    private String stop_reason;                         //why the run ended before a HALT, null if it halted
+    private PhaseProfiler profiler;                     //only used if SimulationOptions.profile_interval is set
+
+    //Reported Metrics (Calculated while the simulation runs)
+    private MetricsAccumulator metrics;
+    private TraceBuffer instruction_trace;              //only kept if SimulationOptions.keep_trace is set
+    private TraceBuffer stage5_history;                 //most recent raw stage 5 records, only kept if SimulationOptions.history_size is set
+    private FunctionalEngine functional_engine;         //only used if SimulationOptions.functional is set
 
     public static void main(String[] args) {
         // String[] a = {"./Benchmarks/factorial/speed_factorial.mem"};
         String[] a = args;
+        SimulationOptions options = SimulationOptions.fromArgs(a);
+
+        //Server mode keeps running and simulates memfiles sent to it
+        if (options.serve_port >= 0) {
+            SimulationServer.main(options);
+            return;
+        }
+
+        //Report mode compares the speed_ and space_ variants of the benchmarks
+        if (options.report_dir != null) {
+            BenchmarkReport.main(options);
+            return;
+        }
+
+        //Batch mode runs many memfiles at once and prints one table
+        if (options.batch) {
+            BatchRunner.main(options);
+            return;
+        }
+
+        //Print a trace file written by an earlier run
+        if (options.dump_trace != null) {
+            TraceReader.main(options);
+            return;
+        }
+
+        //Sweep mode runs one memfile with many different inputs
+        if (!options.sweep_axes.isEmpty()) {
+            ParameterSweep.main(options);
+            return;
+        }
+
+        //Multi core mode runs several pipelines on one shared memory
+        if (options.cores > 1) {
+            MultiCoreSimulation.main(options);
+            return;
+        }
+
+        //Sampled mode estimates the CPI from short detailed windows
+        if (options.sample_period > 0) {
+            SampledSimulation.main(options);
+            return;
+        }
 
-        System.out.println(a[0]);
+        String memfile = options.memfile();
+
+        System.out.println(memfile);
 
         //Instatiate a simulation object. The rest of the application runs from its constructor
-        Simulator sim = new Simulator(a[0]);
+        Simulator sim = new Simulator(memfile, options);
+        if (sim.getStopReason() != null) {
+            System.exit(1);
+        }
+
+        //Show what forwarding saved by running the same memfile again without it
+        if (options.forwarding && !options.functional) {
+            SimulationOptions without = options.copy();
+            without.forwarding = false;
+            without.print_results = false;
+            without.trace_file = null;
+            without.jmx = false;
+            without.seek_cycles.clear();
+            sim.printForwardingComparison(new Simulator(memfile, without));
+        }
+
+        //Show what the predictor saved by running the same memfile again with the original not-taken behavior
+        if ((options.predictor != null) && !options.predictor.equals(BranchPredictor.DEFAULT) && !options.functional) {
+            SimulationOptions not_taken = options.copy();
+            not_taken.predictor = BranchPredictor.DEFAULT;
+            not_taken.initial_predictor = null;
+            not_taken.print_results = false;
+            not_taken.trace_file = null;
+            not_taken.jmx = false;
+            not_taken.seek_cycles.clear();
+            sim.printPredictorComparison(new Simulator(memfile, not_taken));
+        }
     }
 
     /**
@@ -60,324 +136,568 @@ public class Simulator {
      * @param args args[0] should be the filepath of the memfile that needs to be simulated
      */
     public Simulator(String filename) {
+        this(filename, new SimulationOptions());
+    }
+
+    /**
+     * Runs the simulator with the provided memory file and options. Quits the program if the memfile is invalid, or if the
+     * program executes an unknown opcode.
+     *
+     * @param filename the filepath of the memfile that needs to be simulated
+     * @param options settings that change how the simulation is run
+     */
+    public Simulator(String filename, SimulationOptions options) {
         //Initialize sim properties, inclusing initial memory
-        simulation_done = false;
-        int[] start_memory = instantiateMem(filename);
+        int[] start_memory = instantiateMem(filename, options.memory_bits);
+        try {
+            simulate(new MemoryImage(init_pc, init_accum, start_memory), options);
+        } catch (UncheckedIOException e) {
+            System.out.println("Could not write trace file " + options.trace_file + ": " + e.getCause().getMessage());
+            System.exit(1);
+        } catch (IllegalStateException e) {
+            System.out.println(e.getMessage());
+            System.exit(1);
+        }
+    }
 
-        //Use memfile info to create initial Hardware object
-        prevHardware = new Hardware(init_pc, init_accum, start_memory, this);
-        prevHardware.combinationalLogic(prevHardware);
-        prevHardware.generateControlSignals(prevHardware);
+    /**
+     * Runs the simulator on memory that was already loaded. Never quits the program, so many of these can run in one JVM.
+     * The image is not modified. Throws IllegalStateException if the program executes an unknown opcode.
+     *
+     * @param image initial pc, accumulator and memory
+     * @param options settings that change how the simulation is run
+     */
+    public Simulator(MemoryImage image, SimulationOptions options) {
+        this.init_pc = image.init_pc;
+        this.init_accum = image.init_accum;
+        simulate(image, options);
+    }
 
-        //Hardware will set simulation done when it finds a halt, call clock until that happens
-        while (!simulation_done) { 
+    //Used by stepper, which clocks the run itself
+    private Simulator() {
+    }
+
+    /**
+     * Sets up a pipelined run without clocking it. Each call to step() then runs one clock, so the caller can keep several runs
+     * in lock step (see MultiCoreSimulation). Never quits the program. Fast forward, double buffering, profiling, trace files
+     * and JMX are not used by a stepped run.
+     *
+     * @param image initial pc, accumulator and memory. Not modified
+     * @param options settings that change how the simulation is run
+     * @return a run that has not clocked yet
+     */
+    public static Simulator stepper(MemoryImage image, SimulationOptions options) {
+        Simulator sim = new Simulator();
+        sim.init_pc = image.init_pc;
+        sim.init_accum = image.init_accum;
+        sim.prepare(options);
+        sim.initHardware(image);
+        return sim;
+    }
+
+    /**
+     * Run one clock of a run made by stepper. Does nothing once the run has ended
+     * @return true if the run has not ended yet
+     */
+    public boolean step() {
+        if (!simulation_done) {
             currentHardware = prevHardware.clone();
             currentHardware.clock(prevHardware);
             prevHardware = currentHardware;
+            afterClock();
         }
+        return !simulation_done;
+    }
 
-        //Generate performace metrics and print result
-        proccessResults(currentHardware.stage5States);
-        System.out.println(this);
-        estimateStallSource(currentHardware.stage5States);
+    /**
+     * @return the hardware state after the last clock. A stepped run keeps clocking from this object
+     */
+    public Hardware getHardware() {
+        return currentHardware;
     }
 
-    //A hardware object will call this method when the program should terminate
-    public void endSimulation(){
-        System.out.println("Simulation Ended");
-        simulation_done = true;
+    //Runs the simulation to completion, then prints the results if the options ask for it
+    private void simulate(MemoryImage image, SimulationOptions options) {
+        prepare(options);
+
+        //The functional engine skips the pipeline entirely
+        if (options.functional) {
+            functional_engine = new FunctionalEngine(image, instruction_trace);
+            functional_engine.run(options.max_cycles);
+            if (!functional_engine.isHalted()) {
+                stopEarly("instruction budget of " + options.max_cycles + " used up");
+            }
+            if (options.print_results) {
+                System.out.println(this);
+                if (instruction_trace != null) {
+                    printInstructionTrace();
+                }
+            }
+            return;
+        }
+
+        initHardware(image);
+        profiler = (options.profile_interval > 0) ? new PhaseProfiler(options.profile_interval) : null;
+
+        //Every stage 5 record can be streamed to disk while clocking
+        TraceWriter trace_writer = null;
+        if (options.trace_file != null) {
+            try {
+                trace_writer = new TraceWriter(Paths.get(options.trace_file));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            metrics.setTraceWriter(trace_writer);
+        }
+
+        //Live counters over JMX, for as long as the run is clocking
+        SimulatorMonitor monitor = (options.jmx) ? SimulatorMonitor.register(this, (options.memfile() != null) ? options.memfile() : "image") : null;
+
+        //Hardware will set simulation done when it finds a halt, call clock until that happens
+        try {
+            if (options.double_buffered) {
+                runDoubleBuffered();
+            } else {
+                while (!simulation_done) { 
+                    currentHardware = prevHardware.clone();
+                    if ((profiler != null) && profiler.sample()) {
+                        currentHardware.clockProfiled(prevHardware, profiler);
+                    } else {
+                        currentHardware.clock(prevHardware);
+                    }
+                    prevHardware = currentHardware;
+                    afterClock();
+                    fastForwardWindow();
+                }
+            }
+        } finally {
+            if (monitor != null) {
+                monitor.unregister();
+            }
+            //Closing writes the index and footer, so the records clocked so far can be read even if the run threw
+            if (trace_writer != null) {
+                metrics.setTraceWriter(null);
+                try {
+                    trace_writer.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        //Metrics were calculated while clocking, print result
+        if (options.print_results) {
+            System.out.println(this);
+            estimateStallSource();
+            if (instruction_trace != null) {
+                printInstructionTrace();
+            }
+            if (stage5_history != null) {
+                printStage5History();
+            }
+            if (profiler != null) {
+                System.out.println(profiler);
+            }
+            for (int c : options.seek_cycles) {
+                if (c > cycle) {
+                    System.out.println("\nOption -seek " + c + " is past the end of the run (" + cycle + " clocks)");
+                    continue;
+                }
+                System.out.println("\nHARDWARE STATE AFTER CLOCK " + c);
+                System.out.println("_________________________" + seek(c));
+            }
+        }
+    }
+
+    //Resets the run and its metrics
+    private void prepare(SimulationOptions options) {
+        this.options = options;
+        simulation_done = false;
+        stop_reason = null;
+        instruction_trace = (options.keep_trace) ? new TraceBuffer() : null;
+        stage5_history = (options.history_size > 0) ? new TraceBuffer(options.history_size) : null;
+        metrics = new MetricsAccumulator(instruction_trace, stage5_history);
+    }
+
+    //Use memfile info to create initial Hardware object
+    private void initHardware(MemoryImage image) {
+        prevHardware = new Hardware(init_pc, init_accum, image.words, this);
+        prevHardware.combinationalLogic(prevHardware);
+        prevHardware.generateControlSignals(prevHardware);
+        currentHardware = prevHardware;
+        cycle = 0;
+        fast_forwarded_clocks = 0;
+        loop_detector = (options.loop_check) ? new LoopDetector() : null;
+
+        //The initial state is the first checkpoint
+        checkpoint_interval = options.checkpoint_interval;
+        checkpoints = (checkpoint_interval > 0) ? new ArrayList<>() : null;
+        if (checkpoints != null) {
+            checkpoints.add(prevHardware.deepCopy());
+        }
     }
 
     /**
-     * At the end of each clock, the hardware object will take a snapshot of the last stage and add it to an array list.
-     * All of the instructions that reached the last stage were executed. However, an instruction may sit idly 
-     * in the last stage for 4 cycle if the pipline stalls. This information needs to be removed to produce the actual instruction 
-     * trace.
-     * @param s An array list of objects that hold information about the last stage of the pipeline
-     */
-    public void proccessResults(ArrayList<Stage5State> s) {
-        num_clocks = s.size();
-        instruction_trace = new ArrayList<>();
-        num_stalls = 0;
-       
-        int clocks_to_fill_pipe = 4;
-        int startup_clocks_lost = clocks_to_fill_pipe;
-        int stalls_per_flush = clocks_to_fill_pipe;
-
-        //Need to iterate through the instructions of 's', removing a set of 4 similar instrucions from each set of consequtive repeating instructions.
-        //Instead of removing, just add the instructions that dont need removing to a new list 'instruction_trace'
-        int repeat_state_counter = 0;
-        
-        
-        //This loop doesnt start at 0 because the first four instructions are garbage. When the program starts,
-        //the final register has 0's. This is intrepted as a jump instruction, but is not executed because it lacks
-        //the control signals. To ignore this, save the previous element as the fifth element and start a loop from the sixth.
-        Stage5State prev_state = s.get(startup_clocks_lost);
-        Stage5State curr_state;
-        addToInstructionTrace(prev_state);
-
-        for (int i = clocks_to_fill_pipe + 1; i < s.size(); i++) {
-            
-            curr_state = s.get(i);
-
-            //if the new state doesnt math the old
-            if (!curr_state.equals(prev_state)) {
-                //but the most recent instruction was a duplicate
-                if (repeat_state_counter < stalls_per_flush) {
-                    //add those duplicates to the instructoin trace if there was not 4 of them
-                    for (int j = 0; j < repeat_state_counter; j++) {
-                        addToInstructionTrace(prev_state);
-                    }
-                } 
-                //either way, add the new instruction.
-                addToInstructionTrace(curr_state);
-                repeat_state_counter = 0;
-            } else if (repeat_state_counter == stalls_per_flush) {
-                //if the loop is iterating over repeated elements, only omit every 4 repeats
-                addToInstructionTrace(curr_state);
-                repeat_state_counter = 0;
+     * Same loop as the clone based one, but only two Hardware objects ever exist. Each clock, the object that is two cycles old
+     * is brought up to date with copyFrom and then clocked, so no Hardware objects are allocated per cycle. Memory pages are only
+     * copied on the clocks where a store writes to memory.
+     */
+    private void runDoubleBuffered() {
+        Hardware spare = prevHardware.clone();
+
+        while (!simulation_done) {
+            spare.copyFrom(prevHardware);
+            if ((profiler != null) && profiler.sample()) {
+                spare.clockProfiled(prevHardware, profiler);
             } else {
-                //omit repeats if you havent found 4 of them yet.
-                repeat_state_counter++;
+                spare.clock(prevHardware);
             }
+            currentHardware = spare;
+            spare = prevHardware;
+            prevHardware = currentHardware;
+            afterClock();
+            fastForwardWindow();
+        }
+    }
 
-            //update the state
-            prev_state = curr_state;
+    /**
+     * If SimulationOptions.fast_forward is set and the last clock started a store stall or a flush refill, steps through the rest of
+     * that window on the current snapshot with Hardware.stepInPlace instead of taking a new snapshot every clock. The control
+     * signals in these windows are fixed by the store fsm counter and the flush latches, but older instructions still drain through
+     * the back of the pipe, so each clock is still evaluated. Stage 5 records, metrics and checkpoints are the same as clocking normally.
+     */
+    private void fastForwardWindow() {
+        if (!options.fast_forward) {
+            return;
+        }
+        int window = currentHardware.windowClocks();
+        for (int i = 0; (i < window) && !simulation_done; i++) {
+            if ((profiler != null) && profiler.sampleInPlace()) {
+                long start = System.nanoTime();
+                currentHardware.stepInPlace();
+                profiler.addInPlace(System.nanoTime() - start);
+            } else {
+                currentHardware.stepInPlace();
+            }
+            afterClock();
+            fast_forwarded_clocks++;
+        }
+    }
+
+    //Counts the clock, takes a checkpoint if one is due, and ends the run if it can never halt or ran out of clocks
+    private void afterClock() {
+        cycle++;
+        if ((checkpoints != null) && ((cycle % checkpoint_interval) == 0)) {
+            checkpoints.add(currentHardware.deepCopy());
+        }
+        if (simulation_done) {
+            return;
+        }
+        if ((loop_detector != null) && loop_detector.check(currentHardware, cycle)) {
+            stopEarly("non-terminating at cycle " + loop_detector.getLoopCycle() + ", period " + loop_detector.getPeriod());
+        } else if ((options.max_cycles > 0) && (cycle >= options.max_cycles)) {
+            stopEarly("cycle budget of " + options.max_cycles + " used up");
         }
+    }
 
-        //each of skipped elements actually represented a stall, so do this to calculate how many stalls happened
-        num_stalls = (s.size() - stalls_per_flush) - instruction_trace.size();
+    //Ends the run without a HALT
+    private void stopEarly(String reason) {
+        stop_reason = reason;
+        if (options.print_results) {
+            System.out.println("Simulation Stopped: " + reason);
+        }
+        simulation_done = true;
     }
 
     /**
-     * Adds an elements to the intruction trace, and updates the running total of each type of instruction for the instruction mix.
-     * @param s Element that needs to be added to instruction trace
+     * @return why the run ended without reaching a HALT (it can never halt, or it used up SimulationOptions.max_cycles), or null if it halted
      */
-    public void addToInstructionTrace(Stage5State s) {
-        instruction_trace.add(s);
+    public String getStopReason() {
+        return stop_reason;
+    }
 
-        switch (s.opcode) {
-            case ADD:
-            case SUB:
-            case AND:
-            case OR :
-                alu_ops++;
-                break;
-            case LOAD :
-            case LOADI:
-                load_ops++;
-                break;
-            case STORE:
-            case STOREI:
-                store_ops++;
-                break;
-            case JMP:
-            case JN : 
-            case JZ :
-                branch_ops++;
-                break;
-            case HALT:
-                misc_ops++;
-                break;
-            default:
-                System.out.println("Cannot get accurate instructoin mix because opcode is not recognized.");
+    /**
+     * Rebuild the hardware state after any clock of the finished run. Restores the nearest checkpoint at or before that clock,
+     * then clocks forward from it, so it costs at most checkpoint_interval clocks. Needs SimulationOptions.checkpoint_interval.
+     *
+     * @param target_cycle number of clocks from the start of the run, from 0 (the initial state) to getNumCycles()
+     * @return a private copy of the hardware state after that many clocks. Clocking it does not change the run
+     */
+    public Hardware seek(int target_cycle) {
+        if (checkpoints == null) {
+            throw new IllegalStateException("seek needs checkpoints, set SimulationOptions.checkpoint_interval");
+        }
+        if (target_cycle < 0 || target_cycle > cycle) {
+            throw new IllegalArgumentException("Cycle " + target_cycle + " is outside of the run (0 to " + cycle + ")");
         }
 
+        Hardware p = checkpoints.get(target_cycle / checkpoint_interval).deepCopy();
+        for (int c = (target_cycle / checkpoint_interval) * checkpoint_interval; c < target_cycle; c++) {
+            Hardware next = p.clone();
+            next.clock(p);
+            p = next;
+        }
+        return p;
     }
 
     /**
-     * Translates a memfile into an array of integers that represent memory. Handles the following errors by quitting program
-     * ->Non binary data
-     * ->Non 8 bit initial pc
-     * ->Non 12 bit inital accumulator
-     * ->Non 12 bit instruction
-     * ->Invalid opcode
-     * ->etc
-     * 
-     * @param fileName the path where the memfile can be found. Should be passed int as args[0]
+     * @return the per phase host time profile, or null if SimulationOptions.profile_interval was not set
      */
-    public int[] instantiateMem(String fileName) {
-         int[] temp_mem = new int[MEMORY_LOCATIONS];
-         
-         
-         try {
-             
-            if (!fileName.contains(".mem")) {
-                throw new Exception("FUCK. The memfile path did not end in '.mem'");
-            }
-         
-            scan = new Scanner(new File(fileName));
-            String initPcString = scan.next();
-            String initAccumString = scan.next();
-
-            //Make sure the initial program counter is valid
-            if (initPcString.length() != 8) {
-                throw new Exception("Fuck. Initial PC value in memfile is not 8 characters");
-            }
+    public PhaseProfiler getProfiler() {
+        return profiler;
+    }
 
-            //Make sure the initial accumulator value is 12 bits
-            if (initAccumString.length() != 12) {
-                throw new Exception("Fuck. Initial accumulator value in memfile is not 12 characters");
-            }
+    /**
+     * @return number of clocks that were stepped in place by SimulationOptions.fast_forward (included in getNumCycles)
+     */
+    public int getFastForwardedClocks() {
+        return fast_forwarded_clocks;
+    }
 
-            //Make sure memfile pc value is a binary string
-            if (!validBinaryString(initPcString)) {
-                throw new Exception("Fuck. Initial PC vlaue in memfile is not a binary string");
-            }
+    /**
+     * @return number of clocks the run took
+     */
+    public int getNumCycles() {
+        return cycle;
+    }
 
-            //Make sure memfile accumulator value is a binary string
-            if (!validBinaryString(initAccumString)) {
-                throw new Exception("Fuck. Initial accumulator value in memfile is not a binary string");
-            }
+    /**
+     * @return a new predictor of the kind the options ask for, or a copy of SimulationOptions.initial_predictor. Each run gets its
+     * own, shared by every snapshot of that run
+     */
+    public BranchPredictor newBranchPredictor() {
+        if (options.initial_predictor != null) {
+            return options.initial_predictor.copy();
+        }
+        return BranchPredictor.create((options.predictor != null) ? options.predictor : BranchPredictor.DEFAULT);
+    }
 
-            this.init_pc = (Integer.parseInt(initPcString, 2) & 0xFF);
-            this.init_accum = (Integer.parseInt(initAccumString, 2) & 0xFFF);
+    /**
+     * @return true if the hardware should forward stage 5 writes into the stage 2 and 3 lookups
+     */
+    public boolean usesForwarding() {
+        return options.forwarding;
+    }
 
-            int i = 0;
-            String instructionAddress;
-            while (scan.hasNext()) {
+    /**
+     * @return the branch predictor of the pipelined run, with its counts. Null for functional runs
+     */
+    public BranchPredictor getBranchPredictor() {
+        return (currentHardware != null) ? currentHardware.predictor : null;
+    }
 
-                instructionAddress = scan.next();
-                
-                //Make sure the memfile doesnt provide more instructions than memory can handle
-                if (i > (MEMORY_LOCATIONS - 1)) {
-                    throw new Exception(String.format("Fuck. The memfile has more instructions that memeory allows. Line: %s ", instructionAddress));
-                }
+    //A hardware object will call this method when the program should terminate
+    public void endSimulation(){
+        //Rewinding a finished run with seek can clock the halt again
+        if (simulation_done) {
+            return;
+        }
+        if (options.print_results) {
+            System.out.println("Simulation Ended");
+        }
+        simulation_done = true;
+    }
 
-                //Make sure that the next line also has instruction data
-                if (!scan.hasNext()) {
-                    throw new Exception(String.format("Fuck. Instruction address %s has no data", instructionAddress));
-                }
+    /**
+     * The metrics are updated by the hardware every clock, so they can be read while the simulation is still running.
+     * @return the metrics of this simulation
+     */
+    public MetricsAccumulator getMetrics() {
+        return metrics;
+    }
 
-                //Grab the instruction binary string
-                String newline = scan.next();
+    /**
+     * @return true if the functional engine ran this simulation, so there are no timing metrics
+     */
+    public boolean isFunctional() {
+        return functional_engine != null;
+    }
 
-                //Make sure it is a valid binary string
-                if (!validBinaryString(newline)) {
-                    throw new Exception(String.format("Fuck. Memfile has invalid binary string. Line: %s", instructionAddress));
-                }
+    /**
+     * @return the value of the accumulator when the program halted
+     */
+    public int getFinalAccumulator() {
+        return (functional_engine != null) ? functional_engine.getAccumulator() : currentHardware.accum_4_2;
+    }
 
-                //Make sure its exactly 12 characters
-                if (newline.length() != 12) {
-                    throw new Exception(String.format("Fuck. Memfile string has %d characters. Exactly 12 is required. Line: %s", newline.length(), instructionAddress));
-                }
+    /**
+     * @return a copy of memory when the program halted
+     */
+    public int[] getFinalMemory() {
+        return (functional_engine != null) ? functional_engine.getMemory() : currentHardware.memory.toArray();
+    }
 
-                // Make sure it's a valid opcode
-                int opcodeBinary = (Integer.parseInt(newline, 2)) >> 8;
-                if (!Opcodes.isValidOpcode(opcodeBinary)) {
-                    throw new Exception(String.format(
-                        "Fuck. Memfile has illegal opcode %s on line %s",
-                        String.format("%4s", Integer.toBinaryString(opcodeBinary & 0xF)).replace(' ', '0'),
-                        instructionAddress
-                    ));
-                }
+    /**
+     * @return the instruction mix of the program, from whichever engine ran it
+     */
+    public InstructionMix getInstructionMix() {
+        return (functional_engine != null) ? functional_engine.getInstructionMix() : metrics.getInstructionMix();
+    }
 
-                //Save results in temp location
-                temp_mem[i] = (Integer.parseInt(newline, 2) & 0xFFF);
-                i++;
-            }
-        } catch (FileNotFoundException e) {
-            System.out.println("Fuck. File not found.");
-            if (scan != null) {
-                scan.close();
-            }
-            System.exit(1);
-        } catch (Exception e) {
-            System.out.println(e.getMessage());
-            if (scan != null) {
-                scan.close();
-            }
-            System.exit(1);
+    /**
+     * @return every instruction that made it through the pipe, or null if the trace was not kept
+     */
+    public TraceBuffer getInstructionTrace() {
+        return instruction_trace;
+    }
+
+    /**
+     * @return the most recent raw stage 5 records, or null if they were not kept
+     */
+    public TraceBuffer getStage5History() {
+        return stage5_history;
+    }
+
+    /**
+     * Rebuilds metrics from recorded stage 5 records. The raw records do not say which instructions retired, so instructions
+     * are counted by the original repeat folding (see MetricsAccumulator). If the records are a full run (every clock from the
+     * start), the clocks and stall sources match getMetrics(), and so does the instruction count if no branch flushed the pipe.
+     * @param s stage 5 records, oldest first
+     * @return metrics for those records
+     */
+    public static MetricsAccumulator proccessResults(TraceBuffer s) {
+        MetricsAccumulator results = new MetricsAccumulator();
+        TraceBuffer.Cursor c = s.cursor();
+        while (c.next()) {
+            results.record(c.pc(), c.opcode());
         }
+        return results;
+    }
 
-        return temp_mem;
-
-    }
-
-    public void estimateStallSource(ArrayList<Stage5State> stage5States) {
-        Stage5State prev_state = stage5States.get(4);
-        Stage5State cur_state;
-        ArrayList<Stage5State> repeats = new ArrayList<>();
-        
-        int repeat_counter = 0;
-
-        for (int i = 0; i < stage5States.size(); i++) {
-            cur_state = stage5States.get(i);
-            repeat_counter = (cur_state.opcode != prev_state.opcode) ? 0 : (repeat_counter + 1);
-            if (repeat_counter == 4) {
-                repeats.add(cur_state);
-                repeat_counter = 0;
-            } 
-            
-            prev_state = cur_state;
-        }
-
-        int j_stalls = 0;
-        int jz_stalls = 0;
-        int jn_stalls = 0;
-        int store_stalls = 0;
-        int storei_stalls = 0;
-        int other_stalls = 0;
-
-        for (Stage5State s : repeats) {
-            switch (s.opcode) {
-                case JMP:
-                    j_stalls++;
-                    break;
-                case JN:
-                    jn_stalls++;
-                    break;
-                case JZ:
-                    jz_stalls++;
-                    break;
-                case STORE:
-                    store_stalls++;
-                    break;
-                case STOREI:
-                    storei_stalls++;
-                    break;
-                default:
-                    other_stalls++;
-                    break;
-            }
+    /**
+     * Print every instruction that made it through the pipe, in order
+     */
+    public void printInstructionTrace() {
+        System.out.println("\nINSTRUCTION TRACE" + " (" + instruction_trace.size() + " instructions executed)");
+        System.out.println("_________________________");
+        TraceBuffer.Cursor c = instruction_trace.cursor();
+        while (c.next()) {
+            System.out.println("\t" + c);
         }
+    }
 
-        System.out.println("\nSTALL SOURCES");
-        System.out.println("____________________");
-        System.out.println("\tJMP:      " + j_stalls * 4);
-        System.out.println("\tJN:       " + jn_stalls * 4);
-        System.out.println("\tJZ:       " + jz_stalls * 4);
-        System.out.println("\tSTORE:    " + store_stalls * 4);
-        System.out.println("\tSTOREI:   " + storei_stalls * 4);
+    /**
+     * Print the raw stage 5 record of the last few clocks, including stalls and the garbage records from filling the pipe
+     */
+    public void printStage5History() {
+        long first_clock = stage5_history.totalAdded() - stage5_history.size();
+        System.out.println("\nSTAGE 5 HISTORY" + " (last " + stage5_history.size() + " of " + stage5_history.totalAdded() + " records)");
+        System.out.println("_________________________");
+        TraceBuffer.Cursor c = stage5_history.cursor();
+        while (c.next()) {
+            System.out.println("\t" + (first_clock + c.position()) + "\t" + c);
+        }
+    }
 
+    /**
+     * Translates a memfile (or s12 assembly, see Assembler) into an array of integers that represent memory. Images are shared
+     * through ImageCache, so loading the same file again skips parsing. Handles the following errors by quitting program
+     * ->Non binary data
+     * ->Non 8 bit initial pc
+     * ->Non 12 bit inital accumulator
+     * ->Non 12 bit instruction
+     * ->Invalid opcode
+     * ->etc
+     * 
+     * @param fileName the path where the memfile can be found. Should be passed int as args[0]
+     */
+    public int[] instantiateMem(String fileName) {
+        return instantiateMem(fileName, MEMORY_BITS);
+    }
 
+    /**
+     * Same as instantiateMem(fileName), for a memory with 2^memory_bits locations
+     * @param fileName the path where the memfile can be found
+     * @param memory_bits the width of an address
+     * @return a new array the caller may change. The cached image's words are copied, so changing them does not change later loads
+     */
+    public int[] instantiateMem(String fileName, int memory_bits) {
+        try {
+            MemoryImage image = ImageCache.load(fileName, memory_bits);
+            this.init_pc = image.init_pc;
+            this.init_accum = image.init_accum;
+            return image.words.clone();
+        } catch (MemfileException e) {
+            System.out.println(e.getMessage());
+            System.exit(1);
+            return null;
+        }
+    }
 
+    /**
+     * Print the CPI and stalls of this run next to a run of the same memfile without forwarding
+     * @param without the run without forwarding
+     */
+    public void printForwardingComparison(Simulator without) {
+        System.out.println("\nFORWARDING");
+        System.out.println("____________________");
+        System.out.println(String.format("\t%-6s %8s %8s %8s %8s %10s", "", "CPI", "CLOCKS", "STALLS", "STORE", "CONFLICTS"));
+        for (Simulator s : new Simulator[]{without, this}) {
+            MetricsAccumulator m = s.getMetrics();
+            System.out.println(String.format("\t%-6s %8.4f %8d %8d %8d %10d", (s == this) ? "on" : "off", m.getCpi(), m.getNumClocks(),
+                    m.getNumStalls(), m.getStoreStalls() + m.getStoreIStalls(), m.getStoreConflicts()));
+        }
     }
 
     /**
-     * Determine if a string is binary
-     * @param s string that needs to be checked
-     * @return true if the string is binary, false otherwise
+     * Print the clocks and flushes of this run next to a run of the same memfile that predicts every branch not taken. Both
+     * runs retire the same instructions, so the CPI and clocks compare directly
+     * @param not_taken the run with the not-taken predictor
      */
-    public boolean validBinaryString(String s) {
-        return s.matches("[01]+");
+    public void printPredictorComparison(Simulator not_taken) {
+        System.out.println("\nPREDICTOR");
+        System.out.println("____________________");
+        System.out.println(String.format("\t%-10s %8s %8s %8s %8s", "", "CPI", "CLOCKS", "INSTRS", "FLUSHES"));
+        for (Simulator s : new Simulator[]{not_taken, this}) {
+            MetricsAccumulator m = s.getMetrics();
+            System.out.println(String.format("\t%-10s %8.4f %8d %8d %8d", s.getBranchPredictor().getName(), m.getCpi(), m.getNumClocks(),
+                    m.getNumInstructions(), m.getFlushes()));
+        }
+        int saved = not_taken.getMetrics().getNumClocks() - metrics.getNumClocks();
+        System.out.println(String.format("\tCLOCKS SAVED:  %d (%.2fx fewer clocks than not-taken)", saved,
+                (metrics.getNumClocks() == 0) ? 0.0 : (double) not_taken.getMetrics().getNumClocks() / metrics.getNumClocks()));
+    }
+
+    /**
+     * Print how many stalls each type of instruction caused. Every 4th repeat of an opcode in stage 5 is counted as a stall from it
+     */
+    public void estimateStallSource() {
+        System.out.println("\nSTALL SOURCES");
+        System.out.println("____________________");
+        System.out.println("\tJMP:      " + metrics.getJmpStalls());
+        System.out.println("\tJN:       " + metrics.getJnStalls());
+        System.out.println("\tJZ:       " + metrics.getJzStalls());
+        System.out.println("\tSTORE:    " + metrics.getStoreStalls());
+        System.out.println("\tSTOREI:   " + metrics.getStoreIStalls());
+
+
+
     }
 
     /**
      * Get a string with the metrics of the executed memfile
      */
     public String toString() {
+        if (functional_engine != null) {
+            return functionalString();
+        }
         String tempString = "";
         tempString += "\nMETRICS";
         tempString += "\n_________________________";
-        tempString += "\n\t" + String.format("AVERAGED CPI:  %.4f", (0.0 + num_clocks) / instruction_trace.size());
-        tempString += "\n\tNUM CLOCKS:    " + num_clocks;
-        tempString += "\n\tNUM STALLS:    " + num_stalls;
-        tempString += "\n\tLOAD OPS:      " + load_ops;
-        tempString += "\n\tSTORE OPS:     " + store_ops;
-        tempString += "\n\tALU OPS:       " + alu_ops;
-        tempString += "\n\tBRANCH OPS:    " + branch_ops;
-        tempString += "\n\tMISC OPS:      " + misc_ops;
+        tempString += "\n\t" + String.format("AVERAGED CPI:  %.4f", metrics.getCpi());
+        tempString += "\n\tNUM CLOCKS:    " + metrics.getNumClocks();
+        tempString += "\n\tNUM STALLS:    " + metrics.getNumStalls();
+        tempString += "\n\tLOAD OPS:      " + metrics.getLoadOps();
+        tempString += "\n\tSTORE OPS:     " + metrics.getStoreOps();
+        tempString += "\n\tALU OPS:       " + metrics.getAluOps();
+        tempString += "\n\tBRANCH OPS:    " + metrics.getBranchOps();
+        tempString += "\n\tMISC OPS:      " + metrics.getMiscOps();
+        if (options.predictor != null) {
+            BranchPredictor predictor = getBranchPredictor();
+            tempString += "\n\tPREDICTOR:     " + predictor.getName();
+            tempString += "\n\tBRANCHES:      " + predictor.getBranches() + " (" + predictor.getMispredicts() + " mispredicted, " + metrics.getFlushes() + " flushes)";
+            tempString += "\n\t" + String.format("ACCURACY:      %.2f%%", 100.0 * predictor.getAccuracy());
+        }
         tempString += "\n";
         tempString += "\n";
         // tempString += "\nINSTRUCTION TRACE" + " (" + instruction_trace.size() + " instructions executed)";
@@ -387,5 +707,23 @@ public class Simulator {
         // }
         return tempString;
     }
-}
 
+    /**
+     * The functional engine does not model clocks, so only the instruction mix and architectural results can be reported
+     */
+    private String functionalString() {
+        InstructionMix mix = functional_engine.getInstructionMix();
+        String tempString = "";
+        tempString += "\nMETRICS (FUNCTIONAL, NO TIMING)";
+        tempString += "\n_________________________";
+        tempString += "\n\tINSTRUCTIONS:  " + mix.total();
+        tempString += "\n\tLOAD OPS:      " + mix.load_ops;
+        tempString += "\n\tSTORE OPS:     " + mix.store_ops;
+        tempString += "\n\tALU OPS:       " + mix.alu_ops;
+        tempString += "\n\tBRANCH OPS:    " + mix.branch_ops;
+        tempString += "\n\tMISC OPS:      " + mix.misc_ops;
+        tempString += "\n\tFINAL ACCUM:   0x" + Integer.toHexString(functional_engine.getAccumulator());
+        tempString += "\n";
+        return tempString;
+    }
+}
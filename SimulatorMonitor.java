@@ -0,0 +1,148 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Publishes the metrics of a running Simulator as an MXBean named s12:type=Simulator,name=<memfile>,id=<n>. The bean is registered
+ * when the run starts and removed when it ends (see SimulationOptions.jmx).
+ *
+ * Nothing extra is counted for the bean: every attribute reads a counter that MetricsAccumulator already keeps up to date each
+ * clock, without allocating. The counters are plain fields written by the simulation thread, so a value read over JMX can be a
+ * few clocks behind, which is fine for watching a run.
+ */
+
+public class SimulatorMonitor implements SimulatorMonitorMXBean {
+
+    private static final AtomicInteger next_id = new AtomicInteger();
+
+    private final Simulator sim;
+    private final String memfile;
+    private final ObjectName name;
+    private volatile boolean running = true;
+
+    private SimulatorMonitor(Simulator sim, String memfile) throws JMException {
+        this.sim = sim;
+        this.memfile = memfile;
+        this.name = new ObjectName("s12:type=Simulator,name=" + ObjectName.quote(memfile) + ",id=" + next_id.getAndIncrement());
+    }
+
+    /**
+     * Register a bean for a simulation that is about to start clocking
+     * @param sim the simulation
+     * @param memfile label for the run, usually the memfile path
+     * @return the registered bean, pass it to unregister when the run ends
+     */
+    public static SimulatorMonitor register(Simulator sim, String memfile) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            SimulatorMonitor monitor = new SimulatorMonitor(sim, memfile);
+            server.registerMBean(monitor, monitor.name);
+            return monitor;
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not register the JMX bean for " + memfile, e);
+        }
+    }
+
+    /**
+     * Remove the bean, once the run it watches has ended
+     */
+    public void unregister() {
+        running = false;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException e) {
+            //Already removed
+        }
+    }
+
+    public ObjectName getName() {
+        return name;
+    }
+
+    @Override
+    public String getMemfile() {
+        return memfile;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getCycles() {
+        return sim.getMetrics().getNumClocks();
+    }
+
+    @Override
+    public int getRetiredInstructions() {
+        return sim.getMetrics().getNumInstructions();
+    }
+
+    @Override
+    public double getCpi() {
+        return sim.getMetrics().getCpi();
+    }
+
+    @Override
+    public double getWindowCpi() {
+        return sim.getMetrics().getWindowCpi();
+    }
+
+    @Override
+    public double[] getWindowCpiHistory() {
+        return sim.getMetrics().getWindowCpiHistory();
+    }
+
+    @Override
+    public int getWindowClocks() {
+        return MetricsAccumulator.WINDOW_CLOCKS;
+    }
+
+    @Override
+    public int getStalls() {
+        return sim.getMetrics().getNumStalls();
+    }
+
+    @Override
+    public int getJmpStalls() {
+        return sim.getMetrics().getJmpStalls();
+    }
+
+    @Override
+    public int getJnStalls() {
+        return sim.getMetrics().getJnStalls();
+    }
+
+    @Override
+    public int getJzStalls() {
+        return sim.getMetrics().getJzStalls();
+    }
+
+    @Override
+    public int getStoreStalls() {
+        return sim.getMetrics().getStoreStalls();
+    }
+
+    @Override
+    public int getStoreIStalls() {
+        return sim.getMetrics().getStoreIStalls();
+    }
+
+    @Override
+    public int getFlushes() {
+        return sim.getMetrics().getFlushes();
+    }
+
+    @Override
+    public int getStoreConflicts() {
+        return sim.getMetrics().getStoreConflicts();
+    }
+
+    @Override
+    public int getPc() {
+        return sim.getMetrics().getLastPc();
+    }
+}
@@ -0,0 +1,43 @@
+/**
+ * Live counters of one running Simulator, readable over JMX (jconsole, VisualVM...) while the run is going. See SimulatorMonitor.
+ */
+
+public interface SimulatorMonitorMXBean {
+
+    String getMemfile();
+
+    boolean isRunning();
+
+    int getCycles();
+
+    int getRetiredInstructions();
+
+    double getCpi();
+
+    //CPI of the last finished window of getWindowClocks() clocks
+    double getWindowCpi();
+
+    //CPI of the most recent windows, oldest first, to see the phases of a program
+    double[] getWindowCpiHistory();
+
+    int getWindowClocks();
+
+    int getStalls();
+
+    int getJmpStalls();
+
+    int getJnStalls();
+
+    int getJzStalls();
+
+    int getStoreStalls();
+
+    int getStoreIStalls();
+
+    int getFlushes();
+
+    int getStoreConflicts();
+
+    //pc of the instruction in stage 5
+    int getPc();
+}
@@ -0,0 +1,77 @@
+/**
+ * Tracks which memory addresses were recently targeted by a STORE or STOREI, so a new instruction that uses one of them can
+ * be stalled until the store has finished (the 'smart store' logic in Hardware.combinationalLogic).
+ *
+ * Each address holds the last cycle it stays busy until. Marking an address busy, checking it and expiring it are all
+ * a single array access, and nothing is allocated. It replaces a pair of lists of busy addresses and their timers, where an
+ * address stayed busy until its timer passed min_busy_cycles.
+ */
+
+public class StoreScoreboard {
+
+    private final int[] busy_until;         //last cycle each address is busy for
+    private final int busy_cycles;          //cycles an address stays busy after it is marked
+    private int cycle = 0;                  //number of times tick() was called
+
+    /**
+     * @param locations number of memory addresses
+     * @param busy_cycles cycles an address stays busy after it is marked
+     */
+    public StoreScoreboard(int locations, int busy_cycles) {
+        this.busy_until = new int[locations];
+        this.busy_cycles = busy_cycles;
+        java.util.Arrays.fill(busy_until, -1);
+    }
+
+    /**
+     * Advance one cycle. Addresses whose busy time ran out stop being busy
+     */
+    public void tick() {
+        cycle++;
+    }
+
+    /**
+     * @param address memory address
+     * @return true if a store to this address was marked in the last busy_cycles cycles
+     */
+    public boolean isBusy(int address) {
+        return busy_until[address] >= cycle;
+    }
+
+    /**
+     * Mark an address as busy for the next busy_cycles cycles
+     * @param address memory address
+     */
+    public void markBusy(int address) {
+        busy_until[address] = Math.max(busy_until[address], cycle + busy_cycles);
+    }
+
+    /**
+     * @param other another scoreboard
+     * @return true if the same addresses are busy for the same number of remaining cycles, so both behave the same from now on
+     */
+    public boolean sameState(StoreScoreboard other) {
+        if ((busy_until.length != other.busy_until.length) || (busy_cycles != other.busy_cycles)) {
+            return false;
+        }
+        for (int a = 0; a < busy_until.length; a++) {
+            //An address whose busy time ran out behaves the same no matter how long ago that was
+            int remaining = Math.max(busy_until[a] - cycle, 0);
+            int other_remaining = Math.max(other.busy_until[a] - other.cycle, 0);
+            if (remaining != other_remaining) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return a scoreboard with the same busy addresses, that can change without changing this one
+     */
+    public StoreScoreboard copy() {
+        StoreScoreboard copy = new StoreScoreboard(busy_until.length, busy_cycles);
+        System.arraycopy(busy_until, 0, copy.busy_until, 0, busy_until.length);
+        copy.cycle = cycle;
+        return copy;
+    }
+}
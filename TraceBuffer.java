@@ -0,0 +1,182 @@
+/**
+ * A compact store of stage 5 records (pc and opcode). Each record is packed into a single int, with the opcode in the lower
+ * 4 bits and the pc above it, so adding a record never allocates an object.
+ *
+ * The buffer either grows to hold every record, or keeps only the most recent records in a fixed size ring.
+ * Records are read in order (oldest first) with a Cursor:
+ *
+ *              TraceBuffer.Cursor c = buffer.cursor();
+ *              while (c.next()) {
+ *                  ... c.pc() ... c.opcode() ...
+ *              }
+ */
+
+public class TraceBuffer {
+
+    private static final int OPCODE_BITS = 4;
+    private static final int OPCODE_MASK = (1 << OPCODE_BITS) - 1;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private int[] entries;
+    private final boolean ring;     //true if old records are overwritten once the buffer is full
+    private int start = 0;          //index of the oldest record
+    private int count = 0;          //number of records currently held
+    private long total_added = 0;   //number of records ever added, including overwritten ones
+
+    /**
+     * Create a buffer that grows to hold every record
+     */
+    public TraceBuffer() {
+        this.entries = new int[INITIAL_CAPACITY];
+        this.ring = false;
+    }
+
+    /**
+     * Create a buffer that only keeps the most recent records
+     * @param capacity number of records to keep
+     */
+    public TraceBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Trace buffer capacity must be positive, was " + capacity);
+        }
+        this.entries = new int[capacity];
+        this.ring = true;
+    }
+
+    /**
+     * @param pc the pc of the instruction
+     * @param opcode opcode binary of the instruction
+     * @return pc and opcode packed into one int
+     */
+    public static int pack(int pc, int opcode) {
+        return (pc << OPCODE_BITS) | (opcode & OPCODE_MASK);
+    }
+
+    public static int unpackPc(int entry) {
+        return entry >>> OPCODE_BITS;
+    }
+
+    public static int unpackOpcode(int entry) {
+        return entry & OPCODE_MASK;
+    }
+
+    /**
+     * Add a record to the end of the buffer. Only allocates when a growable buffer runs out of room
+     * @param pc the pc of the instruction
+     * @param opcode opcode binary of the instruction
+     */
+    public void add(int pc, int opcode) {
+        int entry = pack(pc, opcode);
+        total_added++;
+
+        if (ring) {
+            if (count < entries.length) {
+                entries[count++] = entry;
+            } else {
+                entries[start] = entry;
+                start = (start + 1 == entries.length) ? 0 : start + 1;
+            }
+            return;
+        }
+
+        if (count == entries.length) {
+            int[] bigger = new int[entries.length * 2];
+            System.arraycopy(entries, 0, bigger, 0, count);
+            entries = bigger;
+        }
+        entries[count++] = entry;
+    }
+
+    /**
+     * @return number of records currently held
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return number of records ever added. Larger than size() if a ring buffer has overwritten records
+     */
+    public long totalAdded() {
+        return total_added;
+    }
+
+    /**
+     * @param i index of the record, 0 is the oldest record held
+     * @return the packed record
+     */
+    public int entryAt(int i) {
+        if (i < 0 || i >= count) {
+            throw new IndexOutOfBoundsException("Trace index " + i + " out of " + count);
+        }
+        int index = start + i;
+        return entries[(index >= entries.length) ? index - entries.length : index];
+    }
+
+    public int pcAt(int i) {
+        return unpackPc(entryAt(i));
+    }
+
+    public int opcodeAt(int i) {
+        return unpackOpcode(entryAt(i));
+    }
+
+    /**
+     * Allocates, so this should not be used while clocking
+     * @param i index of the record, 0 is the oldest record held
+     * @return the record as a Stage5State object
+     */
+    public Stage5State get(int i) {
+        return new Stage5State(pcAt(i), Opcodes.fromCode(opcodeAt(i)));
+    }
+
+    /**
+     * @return a cursor positioned before the oldest record
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Reads the records of the buffer in order, without creating an object per record
+     */
+    public class Cursor {
+        private int position = -1;
+        private int entry;
+
+        /**
+         * Move to the next record
+         * @return false if there are no more records
+         */
+        public boolean next() {
+            if (position + 1 >= count) {
+                return false;
+            }
+            position++;
+            entry = entryAt(position);
+            return true;
+        }
+
+        public int pc() {
+            return unpackPc(entry);
+        }
+
+        public int opcode() {
+            return unpackOpcode(entry);
+        }
+
+        /**
+         * @return index of the current record, 0 is the oldest record held
+         */
+        public int position() {
+            return position;
+        }
+
+        /**
+         * @return the current record as it would be printed in the instruction trace
+         */
+        public String toString() {
+            return "0x" + Integer.toHexString(pc()) + " " + Opcodes.getDescription(opcode());
+        }
+    }
+}
@@ -0,0 +1,267 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a trace file written by TraceWriter. Only the seek index is held in memory; records are streamed from the file through
+ * a small buffer, so files of any length can be read. Records are read in clock order with a Cursor:
+ *
+ *              try (TraceReader reader = new TraceReader(path)) {
+ *                  TraceReader.Cursor c = reader.seek(first_clock);
+ *                  while (c.next()) {
+ *                      ... c.clock() ... c.pc() ... c.opcode() ...
+ *                  }
+ *              }
+ *
+ * A cursor can also step over whole runs of identical records with nextRun, which is how stalls are skipped cheaply.
+ */
+
+public class TraceReader implements Closeable {
+
+    private static final int BUFFER_BYTES = 1 << 16;
+
+    private final FileChannel channel;
+    private final long runs_end;            //file offset of the first byte after the last run
+    private final long num_records;
+    private final long[] index_clocks;      //first clock of every INDEX_INTERVAL-th run
+    private final long[] index_offsets;     //file offset of that run
+
+    //Entry point for -dump-trace on the command line. Prints one line per run of identical records
+    public static void main(SimulationOptions options) {
+        try (TraceReader reader = new TraceReader(Paths.get(options.dump_trace))) {
+            System.out.println(options.dump_trace + " (" + reader.getNumRecords() + " clocks)");
+            System.out.println(String.format("%10s  %8s  %s", "CLOCK", "REPEATS", "INSTRUCTION"));
+
+            //The first run printed may start before dump_from, so only its records from dump_from on are counted
+            Cursor c = reader.seek(options.dump_from);
+            boolean more = c.next();
+            int runs = 0;
+            while (more && ((options.dump_runs <= 0) || (runs < options.dump_runs))) {
+                long repeats = c.runFirstClock() + c.runLength() - c.clock();
+                System.out.println(String.format("%10d  %8d  %s", c.clock(), repeats, c));
+                runs++;
+                more = c.nextRun();
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Could not read trace file " + options.dump_trace + ": " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Open a trace file and read its seek index
+     * @param path file written by TraceWriter
+     * @throws IOException if the file can not be read, or is not a complete trace file
+     */
+    public TraceReader(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size < TraceWriter.HEADER_BYTES + TraceWriter.FOOTER_BYTES) {
+                throw new IOException(path + " is too short to be a trace file");
+            }
+
+            ByteBuffer header = read(0, TraceWriter.HEADER_BYTES);
+            if ((header.getInt() != TraceWriter.MAGIC) || (header.getInt() != TraceWriter.VERSION)) {
+                throw new IOException(path + " is not a trace file (or was written by another version)");
+            }
+
+            ByteBuffer footer = read(size - TraceWriter.FOOTER_BYTES, TraceWriter.FOOTER_BYTES);
+            runs_end = footer.getLong();
+            int index_size = footer.getInt();
+            num_records = footer.getLong();
+            if (footer.getInt() != TraceWriter.MAGIC) {
+                throw new IOException(path + " has no footer, the run that wrote it may not have finished");
+            }
+
+            ByteBuffer index = read(runs_end, index_size * TraceWriter.INDEX_ENTRY_BYTES);
+            index_clocks = new long[index_size];
+            index_offsets = new long[index_size];
+            for (int i = 0; i < index_size; i++) {
+                index_clocks[i] = index.getLong();
+                index_offsets[i] = index.getLong();
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    //Reads 'length' bytes starting at 'offset'
+    private ByteBuffer read(long offset, int length) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(length);
+        while (b.hasRemaining()) {
+            if (channel.read(b, offset + b.position()) < 0) {
+                throw new IOException("Trace file ended early");
+            }
+        }
+        b.flip();
+        return b;
+    }
+
+    /**
+     * @return number of records (clocks) in the trace
+     */
+    public long getNumRecords() {
+        return num_records;
+    }
+
+    /**
+     * @return a cursor before the first record
+     */
+    public Cursor cursor() {
+        return seek(0);
+    }
+
+    /**
+     * Jump to a clock without reading the records before it. Finds the last indexed run at or before the clock, then skips
+     * at most INDEX_INTERVAL runs.
+     * @param clock clock of the first record the cursor should return
+     * @return a cursor whose next() moves to the record of that clock
+     */
+    public Cursor seek(long clock) {
+        if ((clock < 0) || (clock > num_records)) {
+            throw new IllegalArgumentException("Clock " + clock + " is outside of the trace (0 to " + num_records + ")");
+        }
+
+        int lo = 0;
+        int hi = index_clocks.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (index_clocks[mid] <= clock) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+
+        Cursor c = (index_clocks.length == 0) ? new Cursor(runs_end, 0) : new Cursor(index_offsets[lo], index_clocks[lo]);
+        c.skipTo(clock);
+        return c;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    public class Cursor {
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+        private long file_offset;           //file offset of the next byte to load into the buffer
+        private int entry;
+        private long run_first_clock;       //clock of the first record in the current run
+        private int run_length = 0;
+        private long clock;                 //clock of the current record, or one before the first record to return
+
+        private Cursor(long file_offset, long first_clock) {
+            this.file_offset = file_offset;
+            this.run_first_clock = first_clock;
+            this.clock = first_clock - 1;
+            buffer.limit(0);
+        }
+
+        //Moves so that next() returns the record of 'target'
+        private void skipTo(long target) {
+            while ((run_first_clock + run_length <= target) && nextRun()) {
+            }
+            clock = target - 1;
+        }
+
+        /**
+         * Move to the next record
+         * @return false if there are no more records
+         */
+        public boolean next() {
+            if (clock + 1 < run_first_clock + run_length) {
+                clock++;
+                return true;
+            }
+            if (!nextRun()) {
+                return false;
+            }
+            clock = run_first_clock;
+            return true;
+        }
+
+        /**
+         * Move to the first record of the next run, skipping what is left of the current one
+         * @return false if there are no more runs
+         */
+        public boolean nextRun() {
+            if (buffer.remaining() < TraceWriter.RUN_BYTES) {
+                if (!fill()) {
+                    return false;
+                }
+            }
+            run_first_clock += run_length;
+            entry = buffer.getInt();
+            run_length = buffer.getInt();
+            clock = run_first_clock;
+            return true;
+        }
+
+        //Loads the next part of the runs into the buffer
+        private boolean fill() {
+            if (file_offset >= runs_end) {
+                return false;
+            }
+            buffer.compact();
+            int want = (int) Math.min(buffer.remaining(), runs_end - file_offset);
+            buffer.limit(buffer.position() + want);
+            try {
+                while (buffer.hasRemaining()) {
+                    int n = channel.read(buffer, file_offset);
+                    if (n < 0) {
+                        throw new IOException("Trace file ended early");
+                    }
+                    file_offset += n;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            buffer.flip();
+            return buffer.remaining() >= TraceWriter.RUN_BYTES;
+        }
+
+        public int pc() {
+            return TraceBuffer.unpackPc(entry);
+        }
+
+        public int opcode() {
+            return TraceBuffer.unpackOpcode(entry);
+        }
+
+        /**
+         * @return clock of the current record, counted from 0 like the records TraceWriter was given
+         */
+        public long clock() {
+            return clock;
+        }
+
+        /**
+         * @return number of identical records in the current run
+         */
+        public int runLength() {
+            return run_length;
+        }
+
+        /**
+         * @return clock of the first record in the current run
+         */
+        public long runFirstClock() {
+            return run_first_clock;
+        }
+
+        /**
+         * @return the current record as it would be printed in the instruction trace
+         */
+        public String toString() {
+            return "0x" + Integer.toHexString(pc()) + " " + Opcodes.getDescription(opcode());
+        }
+    }
+}
@@ -0,0 +1,168 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Streams stage 5 records (pc, opcode and the clock they were seen on) to a binary file while the simulation runs, so traces
+ * far longer than would fit in memory can be kept. Read the file back with TraceReader.
+ *
+ * There is one record per clock, and a stalled instruction shows up as the same record on several consecutive clocks. So the
+ * records are run length encoded: each run of identical records is written once with its length, and the clock of a record is
+ * implied by the lengths of the runs before it. File layout (big endian):
+ *
+ *              int  MAGIC, int VERSION                         header
+ *              int  entry, int length                          one per run, entry is TraceBuffer.pack(pc, opcode)
+ *              long first_clock, long offset                   one per INDEX_INTERVAL runs, so a reader can seek
+ *              long index_offset, int index_size,
+ *              long num_records, int MAGIC                     footer
+ *
+ * Runs go through one direct buffer that is written to the channel when full, so adding a record never allocates.
+ */
+
+public class TraceWriter implements Closeable {
+
+    public static final int MAGIC = 0x53313254;                 //"S12T"
+    public static final int VERSION = 1;
+    public static final int HEADER_BYTES = 8;
+    public static final int RUN_BYTES = 8;
+    public static final int INDEX_ENTRY_BYTES = 16;
+    public static final int FOOTER_BYTES = 24;
+    public static final int INDEX_INTERVAL = 1024;              //runs between index entries
+    private static final int BUFFER_BYTES = 1 << 20;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+    private long written = 0;                                   //bytes already handed to the channel
+
+    private int run_entry;
+    private int run_length = 0;                                 //0 if no run is open
+    private long run_first_clock = 0;
+    private long num_runs = 0;
+    private long num_records = 0;
+
+    private long[] index = new long[64];                        //pairs of (first clock, file offset)
+    private int index_size = 0;
+    private boolean closed = false;
+
+    /**
+     * Create (or replace) a trace file
+     * @param path file to write
+     * @throws IOException if the file can not be created
+     */
+    public TraceWriter(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+    }
+
+    /**
+     * Add the record of the next clock. Records must be added in clock order, one per clock
+     * @param pc the pc of the instruction in stage 5
+     * @param opcode opcode binary of the instruction in stage 5
+     */
+    public void add(int pc, int opcode) {
+        int entry = TraceBuffer.pack(pc, opcode);
+        num_records++;
+
+        if ((run_length > 0) && (entry == run_entry) && (run_length < Integer.MAX_VALUE)) {
+            run_length++;
+            return;
+        }
+
+        if (run_length > 0) {
+            writeRun();
+        }
+        run_entry = entry;
+        run_length = 1;
+    }
+
+    //Writes the open run, and indexes it if it starts a new group of INDEX_INTERVAL runs
+    private void writeRun() {
+        if ((num_runs % INDEX_INTERVAL) == 0) {
+            if (index_size + 2 > index.length) {
+                index = Arrays.copyOf(index, index.length * 2);
+            }
+            index[index_size++] = run_first_clock;
+            index[index_size++] = written + buffer.position();
+        }
+
+        if (buffer.remaining() < RUN_BYTES) {
+            drain();
+        }
+        buffer.putInt(run_entry);
+        buffer.putInt(run_length);
+
+        num_runs++;
+        run_first_clock += run_length;
+    }
+
+    //Hands the buffered bytes to the channel
+    private void drain() {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                written += channel.write(buffer);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * @return number of records added so far
+     */
+    public long getNumRecords() {
+        return num_records;
+    }
+
+    /**
+     * @return number of runs the records were encoded into so far, including the open one
+     */
+    public long getNumRuns() {
+        return num_runs + ((run_length > 0) ? 1 : 0);
+    }
+
+    /**
+     * Write the open run, the seek index and the footer, then close the file. Does nothing if already closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            if (run_length > 0) {
+                writeRun();
+            }
+
+            long index_offset = written + buffer.position();
+            for (int i = 0; i < index_size; i++) {
+                if (buffer.remaining() < Long.BYTES) {
+                    drain();
+                }
+                buffer.putLong(index[i]);
+            }
+
+            if (buffer.remaining() < FOOTER_BYTES) {
+                drain();
+            }
+            buffer.putLong(index_offset);
+            buffer.putInt(index_size / 2);
+            buffer.putLong(num_records);
+            buffer.putInt(MAGIC);
+            drain();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+import s12.jmh.SimulatorHarness;
+
+/**
+ * Gives the JMH benchmarks (which have to live in a named package) access to the simulator classes in the default package.
+ * See SimulatorHarness for what each method does.
+ */
+public class JmhHarness implements SimulatorHarness {
+
+    private MemoryImage image;
+    private SimulationOptions quiet;
+    private SimulationOptions quiet_double_buffered;
+    private SimulationOptions quiet_fast_forward;
+    private SimulationOptions quiet_double_buffered_fast_forward;
+    private SimulationOptions quiet_functional;
+
+    //Snapshots for the micro benchmarks
+    private Hardware previous;
+    private Hardware saved;         //state of 'current' right after prepareSnapshots
+    private Hardware current;
+    private TraceBuffer history;
+
+    public JmhHarness() {
+        quiet = new SimulationOptions();
+        quiet.print_results = false;
+        quiet_double_buffered = quiet.copy();
+        quiet_double_buffered.double_buffered = true;
+        quiet_fast_forward = quiet.copy();
+        quiet_fast_forward.fast_forward = true;
+        quiet_double_buffered_fast_forward = quiet_double_buffered.copy();
+        quiet_double_buffered_fast_forward.fast_forward = true;
+        quiet_functional = quiet.copy();
+        quiet_functional.functional = true;
+    }
+
+    @Override
+    public int load(String memfile) throws Exception {
+        image = MemfileLoader.load(memfile, Simulator.MEMORY_BITS);
+        return image.words.length;
+    }
+
+    @Override
+    public int simulate(boolean double_buffered, boolean fast_forward) {
+        SimulationOptions options = double_buffered ? quiet_double_buffered : quiet;
+        if (fast_forward) {
+            options = double_buffered ? quiet_double_buffered_fast_forward : quiet_fast_forward;
+        }
+        Simulator sim = new Simulator(image, options);
+        return sim.getMetrics().getNumClocks();
+    }
+
+    @Override
+    public int simulateFunctional() {
+        Simulator sim = new Simulator(image, quiet_functional);
+        return sim.getInstructionMix().total();
+    }
+
+    @Override
+    public void prepareSnapshots(int clock) {
+        //A full run records the history for proccessResults, and gives the snapshots a simulation to report to
+        SimulationOptions recording = quiet.copy();
+        recording.history_size = simulate(false, false);
+        Simulator sim = new Simulator(image, recording);
+        history = sim.getStage5History();
+
+        Hardware p = new Hardware(image.init_pc, image.init_accum, image.words, sim);
+        p.combinationalLogic(p);
+        p.generateControlSignals(p);
+        int clocks = Math.min(clock, sim.getMetrics().getNumClocks() - 2);
+        for (int i = 0; i < clocks; i++) {
+            Hardware c = p.clone();
+            c.clock(p);
+            p = c;
+        }
+
+        previous = p;
+        saved = p.clone();
+        current = p.clone();
+    }
+
+    @Override
+    public void resetSnapshot() {
+        current.copyFrom(saved);
+    }
+
+    @Override
+    public void latch() {
+        current.latch(previous);
+    }
+
+    @Override
+    public void combinationalLogic() {
+        current.combinationalLogic(previous);
+    }
+
+    @Override
+    public void updateMemory() {
+        current.updateMemory(previous);
+    }
+
+    @Override
+    public void clock() {
+        current.clock(previous);
+    }
+
+    @Override
+    public double proccessResults() {
+        return Simulator.proccessResults(history).getCpi();
+    }
+}
@@ -0,0 +1,82 @@
+package s12.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Micro benchmarks for the phases of Hardware.clock, on a pair of snapshots taken part way through a benchmark program.
+ * Every phase benchmark first restores the current snapshot so repeated calls do not drift; 'reset' measures that restore
+ * alone, so subtract it from the other results.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HardwareBenchmark {
+
+    @Param({"Benchmarks/multiply/speed_multiply.mem", "Benchmarks/factorial/speed_factorial.mem"})
+    public String memfile;
+
+    @Param({"200"})
+    public int clock;
+
+    private SimulatorHarness harness;
+
+    @Setup
+    public void setup() throws Exception {
+        harness = SimulatorHarness.create();
+        harness.load(memfile);
+        harness.prepareSnapshots(clock);
+    }
+
+    @Benchmark
+    public void reset() {
+        harness.resetSnapshot();
+    }
+
+    @Benchmark
+    public void latch() {
+        harness.resetSnapshot();
+        harness.latch();
+    }
+
+    @Benchmark
+    public void combinationalLogic() {
+        harness.resetSnapshot();
+        harness.combinationalLogic();
+    }
+
+    @Benchmark
+    public void updateMemory() {
+        harness.resetSnapshot();
+        harness.updateMemory();
+    }
+
+    @Benchmark
+    public void clock() {
+        harness.resetSnapshot();
+        harness.clock();
+    }
+
+    /**
+     * Rebuilding the metrics of a whole run from its recorded stage 5 history
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public double proccessResults() {
+        return harness.proccessResults();
+    }
+}
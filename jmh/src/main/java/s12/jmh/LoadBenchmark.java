@@ -0,0 +1,52 @@
+package s12.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to read and parse one memfile into a memory image.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LoadBenchmark {
+
+    @Param({
+        "Benchmarks/factorial/space_factorial.mem",
+        "Benchmarks/factorial/speed_factorial.mem",
+        "Benchmarks/multiply/space_multiply.mem",
+        "Benchmarks/multiply/speed_multiply.mem",
+        "Benchmarks/sum/space_sum.mem",
+        "Benchmarks/sum/speed_sum.mem",
+        "Tests_Used_During_Development/Test.mem",
+        "Tests_Used_During_Development/Test_Branch.mem",
+        "Tests_Used_During_Development/Test_Store.mem"
+    })
+    public String memfile;
+
+    private SimulatorHarness harness;
+
+    @Setup
+    public void setup() {
+        harness = SimulatorHarness.create();
+    }
+
+    @Benchmark
+    public int load() throws Exception {
+        return harness.load(memfile);
+    }
+}
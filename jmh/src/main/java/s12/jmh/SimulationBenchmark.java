@@ -0,0 +1,101 @@
+package s12.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Whole program throughput. Each operation runs one memfile from start to HALT. The 'cycles' counter reports simulated
+ * clocks per second (instructions per second for the functional engine). Run with '-prof gc' to get the bytes allocated
+ * per operation; divide by the clocks of the memfile for the allocation per cycle.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SimulationBenchmark {
+
+    @Param({
+        "Benchmarks/factorial/space_factorial.mem",
+        "Benchmarks/factorial/speed_factorial.mem",
+        "Benchmarks/multiply/space_multiply.mem",
+        "Benchmarks/multiply/speed_multiply.mem",
+        "Benchmarks/sum/space_sum.mem",
+        "Benchmarks/sum/speed_sum.mem",
+        "Tests_Used_During_Development/Test.mem",
+        "Tests_Used_During_Development/Test_Branch.mem",
+        "Tests_Used_During_Development/Test_Store.mem"
+    })
+    public String memfile;
+
+    private SimulatorHarness harness;
+
+    /**
+     * Simulated clocks (or instructions), reported as a rate next to the operations per second
+     */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Cycles {
+        public long cycles;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            cycles = 0;
+        }
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        harness = SimulatorHarness.create();
+        harness.load(memfile);
+    }
+
+    @Benchmark
+    public int pipelined(Cycles counter) {
+        int clocks = harness.simulate(false, false);
+        counter.cycles += clocks;
+        return clocks;
+    }
+
+    @Benchmark
+    public int pipelinedDoubleBuffered(Cycles counter) {
+        int clocks = harness.simulate(true, false);
+        counter.cycles += clocks;
+        return clocks;
+    }
+
+    @Benchmark
+    public int pipelinedFastForward(Cycles counter) {
+        int clocks = harness.simulate(false, true);
+        counter.cycles += clocks;
+        return clocks;
+    }
+
+    @Benchmark
+    public int pipelinedDoubleBufferedFastForward(Cycles counter) {
+        int clocks = harness.simulate(true, true);
+        counter.cycles += clocks;
+        return clocks;
+    }
+
+    @Benchmark
+    public int functional(Cycles counter) {
+        int instructions = harness.simulateFunctional();
+        counter.cycles += instructions;
+        return instructions;
+    }
+}
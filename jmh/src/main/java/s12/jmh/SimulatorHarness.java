@@ -0,0 +1,72 @@
+package s12.jmh;
+
+/**
+ * The simulator classes are in the default package, which classes in a named package cannot refer to, and JMH requires
+ * benchmark classes to be in a named package. So benchmarks drive the simulator through this interface, which is implemented
+ * by JmhHarness (default package). Create one with create().
+ *
+ * Each harness holds one loaded memfile, and one pair of Hardware snapshots for the micro benchmarks.
+ */
+public interface SimulatorHarness {
+
+    /**
+     * @return a new harness backed by the simulator classes
+     */
+    static SimulatorHarness create() {
+        try {
+            return (SimulatorHarness) Class.forName("JmhHarness").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("JmhHarness is missing from the class path", e);
+        }
+    }
+
+    /**
+     * Parse a memfile and keep the image for the other methods
+     * @return number of memory words in the image
+     */
+    int load(String memfile) throws Exception;
+
+    /**
+     * Run the loaded image to completion on the pipelined model, without printing anything
+     * @param double_buffered reuse two Hardware objects instead of cloning one every clock
+     * @param fast_forward step through store stalls and flush refills in place
+     * @return number of clocks simulated
+     */
+    int simulate(boolean double_buffered, boolean fast_forward);
+
+    /**
+     * Run the loaded image to completion on the functional engine
+     * @return number of instructions executed
+     */
+    int simulateFunctional();
+
+    /**
+     * Clock a fresh pipeline from the loaded image and keep the previous and current snapshots after the given clock,
+     * for the micro benchmarks below. Also records the stage 5 history of a full run for proccessResults
+     */
+    void prepareSnapshots(int clock);
+
+    /**
+     * Restore the current snapshot to the state it had after prepareSnapshots (same as a clone of the previous snapshot).
+     * Used to keep micro benchmarks from drifting, and benchmarked on its own as a baseline
+     */
+    void resetSnapshot();
+
+    /** Hardware.latch on the prepared snapshots */
+    void latch();
+
+    /** Hardware.combinationalLogic on the prepared snapshots */
+    void combinationalLogic();
+
+    /** Hardware.updateMemory on the prepared snapshots */
+    void updateMemory();
+
+    /** Hardware.clock on the prepared snapshots */
+    void clock();
+
+    /**
+     * Simulator.proccessResults over the stage 5 history recorded by prepareSnapshots
+     * @return CPI of the run
+     */
+    double proccessResults();
+}
@@ -0,0 +1,59 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+/**
+ * The .s12 sources whose .mem was never hand edited must assemble to exactly the image the memfile loader builds.
+ */
+
+public class AssemblerTest {
+
+    @ParameterizedTest(name = "{0}")
+    @CsvSource({
+        "Benchmarks/factorial/speed_factorial.s12, Benchmarks/factorial/speed_factorial.mem",
+        "Benchmarks/factorial/space_factorial.s12, Benchmarks/factorial/space_factorial.mem",
+        "Benchmarks/sum/speedsum.s12,              Benchmarks/sum/speed_sum.mem",
+        "Tests_Used_During_Development/Test.s12,        Tests_Used_During_Development/Test.mem",
+        "Tests_Used_During_Development/Test_Branch.s12, Tests_Used_During_Development/Test_Branch.mem"
+    })
+    public void assemblesToTheMemfileImage(String source, String memfile) throws MemfileException {
+        MemoryImage assembled = ImageCache.load(source, Simulator.MEMORY_BITS);
+        MemoryImage loaded = MemfileLoader.load(memfile, Simulator.MEMORY_BITS);
+        assertEquals(loaded.init_pc, assembled.init_pc, "pc");
+        assertEquals(loaded.init_accum, assembled.init_accum, "accumulator");
+        assertArrayEquals(loaded.words, assembled.words, "memory");
+    }
+
+    @Test
+    public void placeholderIsRejectedWithItsLine() {
+        MemfileException e = assertThrows(MemfileException.class,
+                () -> ImageCache.load("Benchmarks/multiply/space_multiply.s12", Simulator.MEMORY_BITS));
+        assertTrue(e.getLine() > 0, "no line number in: " + e.getMessage());
+    }
+
+    @Test
+    public void instantiateMemReturnsACopy() throws MemfileException {
+        String file = "Benchmarks/sum/space_sum.mem";
+        SimulationOptions options = new SimulationOptions();
+        options.print_results = false;
+        Simulator sim = new Simulator(ImageCache.load(file, Simulator.MEMORY_BITS), options);
+
+        int[] words = sim.instantiateMem(file);
+        int first = words[0];
+        words[0] = ~first;
+        assertEquals(first, ImageCache.load(file, Simulator.MEMORY_BITS).words[0], "changing the result changed the cached image");
+    }
+
+    @Test
+    public void sameSourceAssemblesOnce() throws MemfileException {
+        byte[] source = "0x00: LOAD 02\nHALT\n0x02: 7\n".getBytes(StandardCharsets.US_ASCII);
+        assertTrue(ImageCache.parse(source, true, Simulator.MEMORY_BITS) == ImageCache.parse(source, true, Simulator.MEMORY_BITS),
+                "the second parse was not served from the cache");
+    }
+}
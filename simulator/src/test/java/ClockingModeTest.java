@@ -0,0 +1,77 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+/**
+ * The ways of clocking the pipeline only change how snapshots are allocated, so every one of them must see the same stage 5
+ * record on every clock, and end with the same metrics and machine state as cloning a new snapshot every clock.
+ */
+
+public class ClockingModeTest {
+
+    private static final int HISTORY = 1 << 16;                 //more clocks than any of the memfiles runs
+
+    static List<String> memfiles() {
+        return BatchRunner.findMemfiles(List.of("Benchmarks", "Tests_Used_During_Development"));
+    }
+
+    //Runs the memfile keeping every stage 5 record
+    private static Simulator run(String file, boolean double_buffered, boolean fast_forward) throws MemfileException {
+        SimulationOptions options = new SimulationOptions();
+        options.print_results = false;
+        options.history_size = HISTORY;
+        options.double_buffered = double_buffered;
+        options.fast_forward = fast_forward;
+        return new Simulator(ImageCache.load(file, Simulator.MEMORY_BITS), options);
+    }
+
+    private static int[] records(Simulator sim) {
+        TraceBuffer history = sim.getStage5History();
+        assertEquals(history.totalAdded(), history.size(), "history dropped records");
+        int[] records = new int[history.size()];
+        for (int i = 0; i < records.length; i++) {
+            records[i] = history.entryAt(i);
+        }
+        return records;
+    }
+
+    private static void assertSameRun(Simulator expected, Simulator actual) {
+        assertEquals(expected.getNumCycles(), actual.getNumCycles(), "clocks");
+        assertArrayEquals(records(expected), records(actual), "stage 5 records");
+        assertEquals(expected.getMetrics().getNumInstructions(), actual.getMetrics().getNumInstructions(), "instructions");
+        assertEquals(expected.getMetrics().getNumStalls(), actual.getMetrics().getNumStalls(), "stalls");
+        assertEquals(expected.getMetrics().getFlushes(), actual.getMetrics().getFlushes(), "flushes");
+        assertEquals(expected.getFinalAccumulator(), actual.getFinalAccumulator(), "accumulator");
+        assertArrayEquals(expected.getFinalMemory(), actual.getFinalMemory(), "memory");
+    }
+
+    @ParameterizedTest
+    @MethodSource("memfiles")
+    public void doubleBufferedMatchesCloning(String file) throws MemfileException {
+        assertSameRun(run(file, false, false), run(file, true, false));
+    }
+
+    @ParameterizedTest
+    @MethodSource("memfiles")
+    public void fastForwardMatchesCloning(String file) throws MemfileException {
+        assertSameRun(run(file, false, false), run(file, false, true));
+    }
+
+    @ParameterizedTest
+    @MethodSource("memfiles")
+    public void fastForwardDoubleBufferedMatchesCloning(String file) throws MemfileException {
+        assertSameRun(run(file, false, false), run(file, true, true));
+    }
+
+    //Guards the two tests above against fast forward quietly never stepping in place
+    @ParameterizedTest
+    @MethodSource("memfiles")
+    public void fastForwardStepsInPlace(String file) throws MemfileException {
+        Simulator sim = run(file, false, true);
+        assertTrue(sim.getFastForwardedClocks() > 0, "no clock was stepped in place");
+    }
+}
@@ -0,0 +1,70 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+/**
+ * The functional engine must leave the same final memory and accumulator as the pipeline, whatever branch predictor the
+ * pipeline uses. The pipeline counts instructions when they retire, so it must also count the ones the functional engine ran.
+ */
+
+public class FunctionalEngineTest {
+
+    static List<Arguments> memfilesAndPredictors() {
+        List<Arguments> arguments = new ArrayList<>();
+        for (String file : BatchRunner.findMemfiles(List.of("Benchmarks", "Tests_Used_During_Development"))) {
+            for (String predictor : BranchPredictor.NAMES) {
+                arguments.add(Arguments.of(file, predictor));
+            }
+        }
+        return arguments;
+    }
+
+    @ParameterizedTest(name = "{0} {1}")
+    @MethodSource("memfilesAndPredictors")
+    public void sameFinalStateAsPipeline(String file, String predictor) throws MemfileException {
+        MemoryImage image = ImageCache.load(file, Simulator.MEMORY_BITS);
+
+        SimulationOptions options = new SimulationOptions();
+        options.print_results = false;
+        options.predictor = predictor;
+        Simulator pipeline = new Simulator(image, options);
+
+        FunctionalEngine engine = new FunctionalEngine(image, null);
+        engine.run();
+
+        assertNull(pipeline.getStopReason(), "pipeline did not halt");
+        assertTrue(engine.isHalted(), "functional engine did not halt");
+        assertEquals(engine.getAccumulator(), pipeline.getFinalAccumulator(), "accumulator");
+        assertArrayEquals(engine.getMemory(), pipeline.getFinalMemory(), "memory");
+    }
+
+    @ParameterizedTest(name = "{0} {1}")
+    @MethodSource("memfilesAndPredictors")
+    public void retiresTheInstructionsExecuted(String file, String predictor) throws MemfileException {
+        MemoryImage image = ImageCache.load(file, Simulator.MEMORY_BITS);
+
+        SimulationOptions options = new SimulationOptions();
+        options.print_results = false;
+        options.predictor = predictor;
+        Simulator pipeline = new Simulator(image, options);
+
+        FunctionalEngine engine = new FunctionalEngine(image, null);
+        engine.run();
+
+        MetricsAccumulator m = pipeline.getMetrics();
+        InstructionMix mix = engine.getInstructionMix();
+        assertEquals(engine.getNumExecuted(), m.getNumInstructions(), "instructions");
+        assertEquals(mix.load_ops, m.getLoadOps(), "load ops");
+        assertEquals(mix.store_ops, m.getStoreOps(), "store ops");
+        assertEquals(mix.alu_ops, m.getAluOps(), "alu ops");
+        assertEquals(mix.branch_ops, m.getBranchOps(), "branch ops");
+        assertEquals(mix.misc_ops, m.getMiscOps(), "misc ops");
+    }
+}
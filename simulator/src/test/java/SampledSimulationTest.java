@@ -0,0 +1,61 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+/**
+ * A program that ends before its first window is clocked whole, so its estimate must be the full run. Confidence intervals are
+ * only printed once there are enough windows.
+ */
+
+public class SampledSimulationTest {
+
+    static List<String> memfiles() {
+        return BatchRunner.findMemfiles(List.of("Benchmarks", "Tests_Used_During_Development"));
+    }
+
+    private static SimulationOptions options(int period) {
+        SimulationOptions options = new SimulationOptions();
+        options.print_results = false;
+        options.sample_period = period;
+        return options;
+    }
+
+    //The first window starts at a random instruction of the first period, far past the end of every memfile
+    @ParameterizedTest
+    @MethodSource("memfiles")
+    public void shortProgramEstimateIsTheFullRun(String file) throws MemfileException {
+        SimulationOptions options = options(1 << 30);
+        MemoryImage image = ImageCache.load(file, Simulator.MEMORY_BITS);
+        SampledSimulation.Result sampled = new SampledSimulation(options).run(file, image);
+        Simulator full = new Simulator(image, options);
+        MetricsAccumulator m = full.getMetrics();
+
+        assertEquals(1, sampled.samples, "windows");
+        assertEquals(m.getNumInstructions(), sampled.instructions, "instructions");
+        assertEquals(m.getCpi(), sampled.cpi, 1e-12, "CPI");
+        assertEquals((0.0 + m.getNumStalls()) / m.getNumInstructions(), sampled.stall_rate, 1e-12, "stalls per instruction");
+        assertEquals((0.0 + m.getFlushes()) / m.getNumInstructions(), sampled.flush_rate, 1e-12, "flushes per instruction");
+    }
+
+    @Test
+    public void fewWindowsHaveNoInterval() {
+        SampledSimulation sampler = new SampledSimulation(options(SampledSimulation.DEFAULT_PERIOD));
+        SampledSimulation.Result r = sampler.runOne("Benchmarks/multiply/speed_multiply.mem");
+        assertTrue(r.samples < 30, "expected few windows, got " + r.samples);
+        assertFalse(r.hasInterval());
+        assertTrue(SampledSimulation.formatTable(List.of(r)).contains("n/a"), "the table prints an interval from " + r.samples + " windows");
+    }
+
+    @Test
+    public void manyWindowsHaveAnInterval() {
+        SampledSimulation.Result r = new SampledSimulation(options(50)).runOne("Benchmarks/factorial/space_factorial.mem");
+        assertTrue(r.hasInterval(), "expected an interval from " + r.samples + " windows");
+        assertTrue(r.cpi_error > 0);
+        assertFalse(SampledSimulation.formatTable(List.of(r)).contains("n/a"));
+    }
+}
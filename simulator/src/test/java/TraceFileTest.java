@@ -0,0 +1,78 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Records written by TraceWriter must read back from TraceReader exactly, one per clock, both from the start and after a seek.
+ */
+
+public class TraceFileTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void simulationTraceRoundTrips() throws IOException, MemfileException {
+        Path file = dir.resolve("space_factorial.s12t");
+        SimulationOptions options = new SimulationOptions();
+        options.print_results = false;
+        options.trace_file = file.toString();
+        options.history_size = 1 << 16;
+        Simulator sim = new Simulator(ImageCache.load("Benchmarks/factorial/space_factorial.mem", Simulator.MEMORY_BITS), options);
+
+        TraceBuffer history = sim.getStage5History();
+        assertEquals(history.totalAdded(), history.size(), "history dropped records");
+        try (TraceReader reader = new TraceReader(file)) {
+            assertEquals(history.size(), reader.getNumRecords());
+            TraceReader.Cursor c = reader.cursor();
+            for (int i = 0; i < history.size(); i++) {
+                assertTrue(c.next(), "trace ended at clock " + i);
+                assertEquals(i, c.clock());
+                assertEquals(history.pcAt(i), c.pc(), "pc at clock " + i);
+                assertEquals(history.opcodeAt(i), c.opcode(), "opcode at clock " + i);
+            }
+            assertFalse(c.next(), "trace has records past the end of the run");
+        }
+    }
+
+    //Enough runs for several index entries, with run lengths that change from run to run
+    @Test
+    public void seekFindsEveryClock() throws IOException {
+        Path file = dir.resolve("synthetic.s12t");
+        int runs = TraceWriter.INDEX_INTERVAL * 5 + 17;
+        int[] first_clock = new int[runs + 1];
+        try (TraceWriter writer = new TraceWriter(file)) {
+            for (int run = 0; run < runs; run++) {
+                first_clock[run + 1] = first_clock[run] + lengthOf(run);
+                for (int i = 0; i < lengthOf(run); i++) {
+                    writer.add(run & 0xFF, run % 16);
+                }
+            }
+            assertEquals(runs, writer.getNumRuns());
+        }
+
+        try (TraceReader reader = new TraceReader(file)) {
+            assertEquals(first_clock[runs], reader.getNumRecords());
+            for (int run = 0; run < runs; run += 97) {
+                for (int clock : new int[]{first_clock[run], first_clock[run + 1] - 1}) {
+                    TraceReader.Cursor c = reader.seek(clock);
+                    assertTrue(c.next(), "nothing at clock " + clock);
+                    assertEquals(clock, c.clock());
+                    assertEquals(run & 0xFF, c.pc(), "pc at clock " + clock);
+                    assertEquals(run % 16, c.opcode(), "opcode at clock " + clock);
+                }
+            }
+            assertFalse(reader.seek(first_clock[runs]).next(), "a seek to the end has records after it");
+        }
+    }
+
+    //Neighbouring runs always differ in pc, so the writer can not merge them
+    private static int lengthOf(int run) {
+        return 1 + (run % 7);
+    }
+}